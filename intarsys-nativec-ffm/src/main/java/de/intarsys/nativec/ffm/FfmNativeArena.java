@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.Arena;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.NativeArena;
+import de.intarsys.nativec.api.NativeMemoryStatistics;
+
+/**
+ * A {@link NativeArena} taking its blocks from a shared {@link Arena}.
+ * <p>
+ * Closing releases all blocks at once. As the segments are bound to the
+ * {@link Arena}, any access to an object of this arena after closing fails
+ * with an {@link IllegalStateException} instead of touching freed memory.
+ */
+public class FfmNativeArena extends NativeArena {
+
+	/**
+	 * The release actions for the {@link NativeMemoryStatistics}.
+	 */
+	private final List<Runnable> accounting = new ArrayList<>();
+
+	private final Arena arena = Arena.ofShared();
+
+	public FfmNativeArena(FfmNativeInterface nativeInterface) {
+		super(nativeInterface);
+	}
+
+	@Override
+	protected INativeHandle allocateBlock(int size) {
+		// the segment is zero initialized
+		FfmNativeHandle handle = new FfmNativeHandle(arena.allocate(size, ALIGNMENT));
+		handle.setSize(size);
+		NativeMemoryStatistics statistics = NativeMemoryStatistics.get();
+		if (statistics != null) {
+			accounting.add(statistics.allocated(handle.getAddress(), size));
+		}
+		return handle;
+	}
+
+	@Override
+	public void close() {
+		if (!isOpen()) {
+			return;
+		}
+		super.close();
+		arena.close();
+		for (Runnable release : accounting) {
+			release.run();
+		}
+		accounting.clear();
+	}
+
+	@Override
+	protected void freeBlock(INativeHandle handle) {
+		// released with the arena
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+
+import de.intarsys.nativec.api.NativeCallSite;
+import de.intarsys.nativec.ffm.FfmNativeFunction.Invocation;
+import de.intarsys.nativec.type.INativeType;
+import de.intarsys.nativec.type.NativeObject;
+import de.intarsys.nativec.type.NativeType;
+
+/**
+ * A {@link NativeCallSite} for the FFM implementation.
+ * <p>
+ * The downcall handle is created once from the declared types and invoked
+ * exactly, without any signature lookup per call.
+ *
+ * @param <T> The return type
+ */
+public class FfmNativeCallSite<T> extends NativeCallSite<T> {
+
+	protected static Object coerce(Class<?> carrier, Object value) {
+		if (carrier == MemorySegment.class || !(value instanceof Number)) {
+			return value;
+		}
+		Number number = (Number) value;
+		if (carrier == int.class) {
+			return number instanceof Integer ? number : number.intValue();
+		} else if (carrier == long.class) {
+			return number instanceof Long ? number : number.longValue();
+		} else if (carrier == short.class) {
+			return number instanceof Short ? number : number.shortValue();
+		} else if (carrier == byte.class) {
+			return number instanceof Byte ? number : number.byteValue();
+		} else if (carrier == float.class) {
+			return number instanceof Float ? number : number.floatValue();
+		} else if (carrier == double.class) {
+			return number instanceof Double ? number : number.doubleValue();
+		}
+		return value;
+	}
+
+	private final Class<?>[] carriers;
+
+	private final FfmNativeFunction function;
+
+	private final MethodHandle invoker;
+
+	private final INativeType returnNativeType;
+
+	public FfmNativeCallSite(FfmNativeFunction function, Class<T> returnType, Class<?>... parameterTypes) {
+		super(function, returnType, parameterTypes);
+		this.function = function;
+		carriers = new Class<?>[parameterTypes.length];
+		Class<?>[] signature = new Class<?>[parameterTypes.length + 1];
+		signature[0] = FfmNativeFunction.returnCarrier(returnType);
+		for (int i = 0; i < parameterTypes.length; i++) {
+			carriers[i] = FfmNativeFunction.argumentCarrier(parameterTypes[i]);
+			signature[i + 1] = carriers[i];
+		}
+		invoker = function.getInvoker(signature);
+		if (NativeObject.class.isAssignableFrom(returnType)) {
+			returnNativeType = NativeType.lookup(returnType);
+			if (returnNativeType == null) {
+				throw new IllegalArgumentException("no type for '" + returnType + "'");
+			}
+		} else {
+			returnNativeType = null;
+		}
+	}
+
+	@Override
+	public T invoke(Object... objects) {
+		checkArguments(objects);
+		try (Invocation invocation = new Invocation()) {
+			// copy only if an argument is marshalled, never modify the caller's array
+			Object[] arguments = objects;
+			for (int i = 0; i < objects.length; i++) {
+				Object argument = coerce(carriers[i], function.marshal(invocation, objects[i]));
+				if (argument != objects[i]) {
+					if (arguments == objects) {
+						arguments = objects.clone();
+					}
+					arguments[i] = argument;
+				}
+			}
+			Object result;
+			try {
+				result = invoker.invokeExact(arguments);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			invocation.copyBack();
+			if (returnNativeType != null) {
+				long address = ((MemorySegment) result).address();
+				if (address == 0) {
+					return null;
+				}
+				return (T) returnNativeType.createNative(new FfmNativeHandle(address));
+			}
+			return function.unmarshalReturn(getReturnType(), result);
+		}
+	}
+
+}
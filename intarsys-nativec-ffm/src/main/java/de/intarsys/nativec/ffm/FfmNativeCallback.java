@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.intarsys.nativec.api.CLong;
+import de.intarsys.nativec.api.CWideString;
+import de.intarsys.nativec.api.ICallback;
+import de.intarsys.nativec.api.INativeCallback;
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.type.INativeMemory;
+import de.intarsys.nativec.type.INativeType;
+import de.intarsys.nativec.type.NativeObject;
+import de.intarsys.nativec.type.NativeType;
+
+/**
+ * An {@link INativeCallback} implemented by an upcall stub.
+ * <p>
+ * The stub is valid as long as this object is referenced. As with JNA, the
+ * client is responsible to keep the callback alive as long as native code may
+ * call it.
+ */
+public class FfmNativeCallback implements INativeCallback {
+
+	private static final MethodHandle DISPATCH;
+
+	static {
+		try {
+			DISPATCH = MethodHandles.lookup().findStatic(FfmNativeCallback.class, "dispatch",
+					MethodType.methodType(Object.class, WeakReference.class, Class.class, Object[].class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	protected static Object defaultValue(Class<?> carrier) {
+		if (carrier == int.class) {
+			return 0;
+		} else if (carrier == long.class) {
+			return 0L;
+		} else if (carrier == short.class) {
+			return (short) 0;
+		} else if (carrier == byte.class) {
+			return (byte) 0;
+		} else if (carrier == char.class) {
+			return (char) 0;
+		} else if (carrier == float.class) {
+			return 0f;
+		} else if (carrier == double.class) {
+			return 0d;
+		} else if (carrier == MemorySegment.class) {
+			return MemorySegment.NULL;
+		}
+		return null;
+	}
+
+	private static Object dispatch(WeakReference<FfmNativeCallback> reference, Class<?> returnCarrier,
+			Object[] args) {
+		FfmNativeCallback nativeCallback = reference.get();
+		if (nativeCallback == null) {
+			// a primitive carrier can not be unboxed from null
+			return defaultValue(returnCarrier);
+		}
+		try {
+			return nativeCallback.callback(args);
+		} catch (Throwable t) {
+			// an exception must never unwind into native code
+			Logger.getLogger("nativec").log(Level.WARNING, "callback failed", t); //$NON-NLS-1$ //$NON-NLS-2$
+			return defaultValue(returnCarrier);
+		}
+	}
+
+	private final Arena arena = Arena.ofAuto();
+
+	private final ICallback callback;
+
+	private final INativeHandle nativeHandle;
+
+	private final Class<?> returnCarrier;
+
+	public FfmNativeCallback(ICallback pCallback) {
+		callback = pCallback;
+		Class<?>[] parameterTypes = callback.getParameterTypes();
+		Class<?>[] carriers = new Class<?>[parameterTypes.length];
+		MemoryLayout[] layouts = new MemoryLayout[parameterTypes.length];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			carriers[i] = FfmNativeFunction.argumentCarrier(parameterTypes[i]);
+			layouts[i] = FfmTools.layout(carriers[i]);
+		}
+		returnCarrier = FfmNativeFunction.returnCarrier(callback.getReturnType());
+		FunctionDescriptor descriptor;
+		if (returnCarrier == void.class) {
+			descriptor = FunctionDescriptor.ofVoid(layouts);
+		} else {
+			descriptor = FunctionDescriptor.of(FfmTools.layout(returnCarrier), layouts);
+		}
+		MethodHandle target = MethodHandles.insertArguments(DISPATCH, 0, new WeakReference<>(this), returnCarrier)
+				.asCollector(Object[].class, carriers.length)
+				.asType(MethodType.methodType(returnCarrier, carriers));
+		MemorySegment stub = FfmTools.LINKER.upcallStub(target, descriptor, arena);
+		nativeHandle = new FfmNativeHandle(stub);
+	}
+
+	protected Object callback(Object[] args) {
+		Class<?>[] parameterTypes = callback.getParameterTypes();
+		for (int index = 0; index < args.length; index++) {
+			args[index] = unmarshalParameter(parameterTypes[index], args[index]);
+		}
+		Object returnValue = callback.invoke(args);
+		return marshalReturn(callback.getReturnType(), returnValue);
+	}
+
+	@Override
+	public INativeHandle getNativeHandle() {
+		return nativeHandle;
+	}
+
+	protected Object marshalReturn(Class<?> returnType, Object returnValue) {
+		if (returnCarrier == void.class) {
+			return null;
+		}
+		if (returnValue == null) {
+			return defaultValue(returnCarrier);
+		}
+		if (returnValue instanceof CLong) {
+			long value = ((CLong) returnValue).longValue();
+			return FfmTools.LONG_SIZE == 4 ? (Object) (int) value : (Object) value;
+		} else if (returnValue instanceof Boolean) {
+			return ((Boolean) returnValue).booleanValue() ? 1 : 0;
+		} else if (returnValue instanceof INativeMemory) {
+			INativeHandle handle = ((INativeMemory) returnValue).getNativeHandle();
+			return handle == null ? MemorySegment.NULL : MemorySegment.ofAddress(handle.getAddress());
+		} else if (returnValue instanceof INativeHandle) {
+			return MemorySegment.ofAddress(((INativeHandle) returnValue).getAddress());
+		} else if (returnValue instanceof Character && FfmTools.WCHAR_SIZE == 4) {
+			return (int) ((Character) returnValue).charValue();
+		}
+		return returnValue;
+	}
+
+	protected Object unmarshalParameter(Class<?> parameterType, Object value) {
+		if (value instanceof MemorySegment) {
+			long address = ((MemorySegment) value).address();
+			if (address == 0) {
+				return null;
+			}
+			if (parameterType == String.class) {
+				return FfmTools.getString(FfmTools.ofAddress(address), 0, FfmTools.CHARSET, 1);
+			} else if (CWideString.class.isAssignableFrom(parameterType)) {
+				return new CWideString(
+						FfmTools.getString(FfmTools.ofAddress(address), 0, FfmTools.WIDE_CHARSET, FfmTools.WCHAR_SIZE));
+			}
+			INativeHandle handle = new FfmNativeHandle(address);
+			if (NativeObject.class.isAssignableFrom(parameterType)) {
+				INativeType type = NativeType.lookup(parameterType);
+				if (type == null) {
+					throw new IllegalArgumentException("no type for '" + parameterType + "'");
+				}
+				return type.createNative(handle);
+			}
+			return handle;
+		}
+		if (CLong.class.isAssignableFrom(parameterType)) {
+			return new CLong(((Number) value).longValue());
+		} else if (parameterType == boolean.class || parameterType == Boolean.class) {
+			return ((Integer) value).intValue() != 0;
+		} else if ((parameterType == char.class || parameterType == Character.class) && value instanceof Integer) {
+			return (char) ((Integer) value).intValue();
+		}
+		return value;
+	}
+}
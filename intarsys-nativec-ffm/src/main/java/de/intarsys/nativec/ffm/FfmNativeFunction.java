@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.intarsys.nativec.api.CLong;
+import de.intarsys.nativec.api.CWideString;
+import de.intarsys.nativec.api.INativeCallSite;
+import de.intarsys.nativec.api.INativeFunction;
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.type.INativeMemory;
+import de.intarsys.nativec.type.INativeType;
+import de.intarsys.nativec.type.NativeObject;
+import de.intarsys.nativec.type.NativeType;
+
+/**
+ * An {@link INativeFunction} implemented by a downcall {@link MethodHandle}.
+ * <p>
+ * The native signature is derived from the runtime types of the arguments and
+ * the requested return type. The downcall handle for each signature is created
+ * once and then reused. Call sites created via {@link #bind(Class, Class...)}
+ * derive the signature once from the declared types instead.
+ * <p>
+ * Variadic functions are not supported.
+ */
+public class FfmNativeFunction implements INativeFunction {
+
+	/**
+	 * The invoker used for the last call and the classes of its marshalled
+	 * arguments, most functions are always called with the same signature.
+	 */
+	static class LastCall {
+
+		private final Class<?>[] argumentClasses;
+
+		private final MethodHandle invoker;
+
+		private final Class<?> returnCarrier;
+
+		protected LastCall(Class<?> returnCarrier, Class<?>[] argumentClasses, MethodHandle invoker) {
+			this.returnCarrier = returnCarrier;
+			this.argumentClasses = argumentClasses;
+			this.invoker = invoker;
+		}
+
+		protected boolean matches(Class<?> pReturnCarrier, Object[] arguments) {
+			if (returnCarrier != pReturnCarrier || argumentClasses.length != arguments.length) {
+				return false;
+			}
+			for (int i = 0; i < arguments.length; i++) {
+				if (arguments[i].getClass() != argumentClasses[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The temporary state of a single invocation, memory for string and array
+	 * arguments and the arrays to copy back after the call.
+	 */
+	static class Invocation implements AutoCloseable {
+
+		private Arena arena;
+
+		private List<Object> arrays;
+
+		private List<MemorySegment> arraySegments;
+
+		protected MemorySegment allocate(long size) {
+			if (arena == null) {
+				arena = Arena.ofConfined();
+			}
+			return arena.allocate(size, 8);
+		}
+
+		protected MemorySegment allocateArray(Object array, ValueLayout layout, int length) {
+			MemorySegment segment = allocate(Math.max(1, length * layout.byteSize()));
+			MemorySegment.copy(array, 0, segment, layout, 0, length);
+			if (arrays == null) {
+				arrays = new ArrayList<>(2);
+				arraySegments = new ArrayList<>(2);
+			}
+			arrays.add(array);
+			arraySegments.add(segment);
+			return segment;
+		}
+
+		protected MemorySegment allocateString(String value, boolean wide) {
+			if (arena == null) {
+				arena = Arena.ofConfined();
+			}
+			if (wide) {
+				return FfmTools.allocateString(arena, value, FfmTools.WIDE_CHARSET, FfmTools.WCHAR_SIZE);
+			}
+			return FfmTools.allocateString(arena, value, FfmTools.CHARSET, 1);
+		}
+
+		@Override
+		public void close() {
+			if (arena != null) {
+				arena.close();
+			}
+		}
+
+		protected void copyBack() {
+			if (arrays == null) {
+				return;
+			}
+			for (int i = 0; i < arrays.size(); i++) {
+				Object array = arrays.get(i);
+				MemorySegment segment = arraySegments.get(i);
+				int length = java.lang.reflect.Array.getLength(array);
+				MemorySegment.copy(segment, elementLayout(array), 0, array, 0, length);
+			}
+		}
+	}
+
+	/**
+	 * The carrier type used to pass a value of the declared <code>type</code>
+	 * to native code.
+	 *
+	 * @param type The declared type
+	 * @return The carrier type
+	 */
+	protected static Class<?> argumentCarrier(Class<?> type) {
+		if (type == boolean.class || type == Boolean.class) {
+			return int.class;
+		} else if (type == char.class || type == Character.class) {
+			return FfmTools.C_WCHAR.carrier();
+		} else if (CLong.class.isAssignableFrom(type)) {
+			return FfmTools.C_LONG.carrier();
+		} else if (type.isPrimitive()) {
+			return type;
+		} else if (type == Integer.class) {
+			return int.class;
+		} else if (type == Long.class) {
+			return long.class;
+		} else if (type == Short.class) {
+			return short.class;
+		} else if (type == Byte.class) {
+			return byte.class;
+		} else if (type == Float.class) {
+			return float.class;
+		} else if (type == Double.class) {
+			return double.class;
+		}
+		// everything else is passed by reference
+		return MemorySegment.class;
+	}
+
+	protected static ValueLayout elementLayout(Object array) {
+		if (array instanceof byte[]) {
+			return ValueLayout.JAVA_BYTE;
+		} else if (array instanceof short[]) {
+			return ValueLayout.JAVA_SHORT;
+		} else if (array instanceof char[]) {
+			return ValueLayout.JAVA_CHAR;
+		} else if (array instanceof int[]) {
+			return ValueLayout.JAVA_INT;
+		} else if (array instanceof long[]) {
+			return ValueLayout.JAVA_LONG;
+		} else if (array instanceof float[]) {
+			return ValueLayout.JAVA_FLOAT;
+		} else if (array instanceof double[]) {
+			return ValueLayout.JAVA_DOUBLE;
+		}
+		return null;
+	}
+
+	/**
+	 * The carrier type used to return a value of <code>returnType</code> from
+	 * native code.
+	 *
+	 * @param returnType The requested return type
+	 * @return The carrier type or <code>void.class</code>
+	 */
+	protected static Class<?> returnCarrier(Class<?> returnType) {
+		if (returnType == void.class || returnType == Void.class) {
+			return void.class;
+		} else if (returnType == int.class || returnType == Integer.class || returnType == boolean.class
+				|| returnType == Boolean.class) {
+			return int.class;
+		} else if (returnType == long.class || returnType == Long.class) {
+			return long.class;
+		} else if (returnType == short.class || returnType == Short.class) {
+			return short.class;
+		} else if (returnType == byte.class || returnType == Byte.class) {
+			return byte.class;
+		} else if (returnType == char.class || returnType == Character.class) {
+			return FfmTools.C_WCHAR.carrier();
+		} else if (returnType == float.class || returnType == Float.class) {
+			return float.class;
+		} else if (returnType == double.class || returnType == Double.class) {
+			return double.class;
+		} else if (CLong.class.isAssignableFrom(returnType)) {
+			return FfmTools.C_LONG.carrier();
+		} else if (returnType == String.class || CWideString.class.isAssignableFrom(returnType)
+				|| NativeObject.class.isAssignableFrom(returnType)
+				|| INativeHandle.class.isAssignableFrom(returnType)) {
+			return MemorySegment.class;
+		}
+		throw new IllegalArgumentException("unsupported return type '" + returnType + "'");
+	}
+
+	private final MemorySegment address;
+
+	/**
+	 * The spread invokers by signature.
+	 */
+	private final Map<List<Class<?>>, MethodHandle> invokers = new ConcurrentHashMap<>();
+
+	private volatile LastCall lastCall;
+
+	public FfmNativeFunction(MemorySegment address) {
+		this.address = address;
+	}
+
+	protected MethodHandle createDowncall(Class<?>[] signature) {
+		MemoryLayout[] argumentLayouts = new MemoryLayout[signature.length - 1];
+		for (int i = 0; i < argumentLayouts.length; i++) {
+			argumentLayouts[i] = FfmTools.layout(signature[i + 1]);
+		}
+		FunctionDescriptor descriptor;
+		if (signature[0] == void.class) {
+			descriptor = FunctionDescriptor.ofVoid(argumentLayouts);
+		} else {
+			descriptor = FunctionDescriptor.of(FfmTools.layout(signature[0]), argumentLayouts);
+		}
+		return FfmTools.LINKER.downcallHandle(address, descriptor);
+	}
+
+	public MemorySegment getAddress() {
+		return address;
+	}
+
+	/**
+	 * The invoker for a call with the marshalled <code>arguments</code>. The
+	 * invoker of the last call is reused if the argument classes are the same.
+	 *
+	 * @param returnCarrier The carrier type of the return value
+	 * @param arguments     The marshalled arguments
+	 * @return The spread invoker
+	 */
+	protected MethodHandle getInvoker(Class<?> returnCarrier, Object[] arguments) {
+		LastCall last = lastCall;
+		if (last != null && last.matches(returnCarrier, arguments)) {
+			return last.invoker;
+		}
+		Class<?>[] signature = new Class<?>[arguments.length + 1];
+		Class<?>[] argumentClasses = new Class<?>[arguments.length];
+		signature[0] = returnCarrier;
+		for (int i = 0; i < arguments.length; i++) {
+			signature[i + 1] = carrierOf(arguments[i]);
+			argumentClasses[i] = arguments[i].getClass();
+		}
+		MethodHandle invoker = getInvoker(signature);
+		lastCall = new LastCall(returnCarrier, argumentClasses, invoker);
+		return invoker;
+	}
+
+	/**
+	 * The downcall handle for <code>signature</code>, where the first element
+	 * is the return carrier followed by the argument carriers. The handle is
+	 * adapted to take the arguments as an <code>Object[]</code> and return an
+	 * <code>Object</code> for use with
+	 * {@link MethodHandle#invokeExact(Object...)}.
+	 *
+	 * @param signature The carrier types
+	 * @return The spread invoker
+	 */
+	protected MethodHandle getInvoker(Class<?>[] signature) {
+		return invokers.computeIfAbsent(Arrays.asList(signature),
+				key -> createDowncall(signature).asSpreader(Object[].class, signature.length - 1)
+						.asType(MethodType.methodType(Object.class, Object[].class)));
+	}
+
+	@Override
+	public <T> INativeCallSite<T> bind(Class<T> returnType, Class<?>... parameterTypes) {
+		return new FfmNativeCallSite<T>(this, returnType, parameterTypes);
+	}
+
+	@Override
+	public <T> T invoke(Class<T> returnType, Object... objects) {
+		return unmarshalReturn(returnType, invokeCarrier(returnCarrier(returnType), objects));
+	}
+
+	@Override
+	public long invokeAddress(Object... objects) {
+		return ((MemorySegment) invokeCarrier(MemorySegment.class, objects)).address();
+	}
+
+	/**
+	 * Invoke the function, answering the plain result of the downcall.
+	 *
+	 * @param returnCarrier The carrier type of the return value
+	 * @param objects       The arguments
+	 * @return The result of the downcall
+	 */
+	protected Object invokeCarrier(Class<?> returnCarrier, Object[] objects) {
+		try (Invocation invocation = new Invocation()) {
+			// copy only if an argument is marshalled, never modify the caller's array
+			Object[] arguments = objects;
+			for (int i = 0; i < objects.length; i++) {
+				Object argument = marshal(invocation, objects[i]);
+				if (argument != objects[i]) {
+					if (arguments == objects) {
+						arguments = objects.clone();
+					}
+					arguments[i] = argument;
+				}
+			}
+			Object result = invokeDowncall(getInvoker(returnCarrier, arguments), arguments);
+			invocation.copyBack();
+			return result;
+		}
+	}
+
+	@Override
+	public long invokeCLong(Object... objects) {
+		return ((Number) invokeCarrier(FfmTools.C_LONG.carrier(), objects)).longValue();
+	}
+
+	@Override
+	public double invokeDouble(Object... objects) {
+		return (Double) invokeCarrier(double.class, objects);
+	}
+
+	@Override
+	public int invokeInt(Object... objects) {
+		return (Integer) invokeCarrier(int.class, objects);
+	}
+
+	@Override
+	public long invokeLong(Object... objects) {
+		return (Long) invokeCarrier(long.class, objects);
+	}
+
+	/**
+	 * Call the spread <code>invoker</code>, see {@link #getInvoker(Class[])}.
+	 *
+	 * @param invoker   The spread invoker
+	 * @param arguments The marshalled arguments
+	 * @return The result of the downcall
+	 */
+	protected Object invokeDowncall(MethodHandle invoker, Object[] arguments) {
+		try {
+			return (Object) invoker.invokeExact(arguments);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	protected Class<?> carrierOf(Object argument) {
+		if (argument instanceof MemorySegment) {
+			return MemorySegment.class;
+		} else if (argument instanceof Integer) {
+			return int.class;
+		} else if (argument instanceof Long) {
+			return long.class;
+		} else if (argument instanceof Short) {
+			return short.class;
+		} else if (argument instanceof Byte) {
+			return byte.class;
+		} else if (argument instanceof Character) {
+			return char.class;
+		} else if (argument instanceof Float) {
+			return float.class;
+		} else if (argument instanceof Double) {
+			return double.class;
+		}
+		throw new IllegalArgumentException("unsupported argument type '" + argument.getClass() + "'");
+	}
+
+	/**
+	 * Map a single argument to its native call representation.
+	 */
+	protected Object marshal(Invocation invocation, Object object) {
+		if (object == null) {
+			return MemorySegment.NULL;
+		} else if (object instanceof Number) {
+			if (object instanceof CLong) {
+				long value = ((CLong) object).longValue();
+				return FfmTools.LONG_SIZE == 4 ? (Object) (int) value : (Object) value;
+			}
+			return object;
+		} else if (object instanceof INativeMemory) {
+			INativeHandle handle = ((INativeMemory) object).getNativeHandle();
+			if (handle == null) {
+				return MemorySegment.NULL;
+			}
+			return MemorySegment.ofAddress(handle.getAddress());
+		} else if (object instanceof INativeHandle) {
+			return MemorySegment.ofAddress(((INativeHandle) object).getAddress());
+		} else if (object instanceof String) {
+			return invocation.allocateString((String) object, false);
+		} else if (object instanceof CWideString) {
+			return invocation.allocateString(((CWideString) object).getString(), true);
+		} else if (object instanceof Boolean) {
+			return ((Boolean) object).booleanValue() ? 1 : 0;
+		} else if (object instanceof Character) {
+			char value = (Character) object;
+			return FfmTools.WCHAR_SIZE == 2 ? (Object) value : (Object) (int) value;
+		} else if (object instanceof ByteBuffer && ((ByteBuffer) object).isDirect()) {
+			return MemorySegment.ofBuffer((ByteBuffer) object);
+		}
+		ValueLayout layout = elementLayout(object);
+		if (layout != null) {
+			return invocation.allocateArray(object, layout, java.lang.reflect.Array.getLength(object));
+		}
+		throw new IllegalArgumentException("unsupported argument type '" + object.getClass() + "'");
+	}
+
+	@Override
+	public String toString() {
+		return "native function@0x" + Long.toHexString(address.address()); //$NON-NLS-1$
+	}
+
+	protected <T> T unmarshalReturn(Class<T> returnType, Object result) {
+		if (result == null) {
+			return null;
+		}
+		if (result instanceof MemorySegment) {
+			MemorySegment segment = (MemorySegment) result;
+			if (segment.address() == 0) {
+				return null;
+			}
+			if (returnType == String.class) {
+				return (T) FfmTools.getString(FfmTools.ofAddress(segment.address()), 0, FfmTools.CHARSET, 1);
+			} else if (CWideString.class.isAssignableFrom(returnType)) {
+				return (T) new CWideString(FfmTools.getString(FfmTools.ofAddress(segment.address()), 0,
+						FfmTools.WIDE_CHARSET, FfmTools.WCHAR_SIZE));
+			}
+			INativeHandle handle = new FfmNativeHandle(segment.address());
+			if (NativeObject.class.isAssignableFrom(returnType)) {
+				INativeType type = NativeType.lookup(returnType);
+				if (type == null) {
+					throw new IllegalArgumentException("no type for '" + returnType + "'");
+				}
+				return (T) type.createNative(handle);
+			}
+			return (T) handle;
+		}
+		if (CLong.class.isAssignableFrom(returnType)) {
+			return (T) new CLong(((Number) result).longValue());
+		} else if (returnType == boolean.class || returnType == Boolean.class) {
+			return (T) Boolean.valueOf(((Integer) result).intValue() != 0);
+		} else if (returnType == char.class || returnType == Character.class) {
+			return (T) Character.valueOf((char) ((Number) result).intValue());
+		}
+		return (T) result;
+	}
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.NativeMemoryStatistics;
+
+/**
+ * An {@link INativeHandle} implemented by a {@link MemorySegment}.
+ * <p>
+ * All access is performed using the unaligned value layouts, as struct packing
+ * may place members at any offset.
+ * <p>
+ * A handle created via {@link #allocate(int, boolean)} owns c heap memory,
+ * which is freed upon {@link #close()} or when the handle and all handles
+ * derived from it via {@link #offset(int)} are no longer reachable. The memory
+ * is reported to the {@link NativeMemoryStatistics}, if enabled.
+ */
+public class FfmNativeHandle implements INativeHandle {
+
+	/**
+	 * The action freeing the memory of an owning handle. This must not refer to
+	 * the handle itself.
+	 */
+	private static class Release implements Runnable {
+
+		private final Runnable accounting;
+
+		private final long address;
+
+		protected Release(long address, Runnable accounting) {
+			this.address = address;
+			this.accounting = accounting;
+		}
+
+		@Override
+		public void run() {
+			FfmTools.free(MemorySegment.ofAddress(address));
+			if (accounting != null) {
+				accounting.run();
+			}
+		}
+	}
+
+	/**
+	 * Allocate <code>size</code> bytes from the c heap.
+	 *
+	 * @param size  The size in bytes
+	 * @param clear <code>true</code> to zero the memory
+	 * @return The new handle, owning the memory
+	 */
+	public static FfmNativeHandle allocate(int size, boolean clear) {
+		// avoid the implementation defined result of allocating 0 bytes
+		long allocationSize = Math.max(size, 1);
+		MemorySegment segment = clear ? FfmTools.calloc(allocationSize) : FfmTools.malloc(allocationSize);
+		return new FfmNativeHandle(segment.reinterpret(size), true);
+	}
+
+	private final Cleaner.Cleanable cleanable;
+
+	/**
+	 * The owning handle this one is derived from, keeps the memory alive.
+	 */
+	private final FfmNativeHandle root;
+
+	private final MemorySegment segment;
+
+	private int size;
+
+	public FfmNativeHandle(FfmNativeHandle handle, int offset) {
+		this.segment = handle.segment.asSlice(offset);
+		this.size = handle.size - offset;
+		this.root = handle.isOwner() ? handle : handle.root;
+		this.cleanable = null;
+	}
+
+	public FfmNativeHandle(long address) {
+		this(FfmTools.ofAddress(address));
+	}
+
+	public FfmNativeHandle(MemorySegment segment) {
+		this.segment = segment;
+		this.root = null;
+		this.cleanable = null;
+	}
+
+	protected FfmNativeHandle(MemorySegment segment, boolean owner) {
+		this.segment = segment;
+		this.root = null;
+		if (owner) {
+			NativeMemoryStatistics statistics = NativeMemoryStatistics.get();
+			Runnable accounting = statistics == null ? null
+					: statistics.allocated(segment.address(), segment.byteSize());
+			this.cleanable = FfmTools.CLEANER.register(this, new Release(segment.address(), accounting));
+		} else {
+			this.cleanable = null;
+		}
+	}
+
+	/**
+	 * The buffer on owned memory keeps the owning handle reachable, the memory
+	 * is not freed by the garbage collector while the buffer is in use.
+	 */
+	@Override
+	public ByteBuffer asByteBuffer(int offset, int length) {
+		MemorySegment slice = segment.asSlice(offset, length);
+		FfmNativeHandle owner = isOwner() ? this : root;
+		if (owner != null) {
+			// the buffer keeps the scope reachable and the scope's cleanup the owner
+			slice = slice.reinterpret(Arena.ofAuto(), ignored -> Reference.reachabilityFence(owner));
+		}
+		return slice.asByteBuffer().order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public void close() {
+		if (cleanable != null) {
+			cleanable.clean();
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof INativeHandle)) {
+			return false;
+		}
+		INativeHandle otherHandle = (INativeHandle) obj;
+		return getAddress() == otherHandle.getAddress() && size == otherHandle.getSize();
+	}
+
+	@Override
+	public long getAddress() {
+		return segment.address();
+	}
+
+	@Override
+	public byte getByte(int index) {
+		return segment.get(ValueLayout.JAVA_BYTE, index);
+	}
+
+	@Override
+	public byte[] getByteArray(int index, int count) {
+		return segment.asSlice(index, count).toArray(ValueLayout.JAVA_BYTE);
+	}
+
+	@Override
+	public long getCLong(int index) {
+		if (FfmTools.LONG_SIZE == 4) {
+			return segment.get(ValueLayout.JAVA_INT_UNALIGNED, index);
+		}
+		return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, index);
+	}
+
+	@Override
+	public long[] getCLongArray(int index, int count) {
+		if (FfmTools.LONG_SIZE == 4) {
+			int[] ints = new int[count];
+			MemorySegment.copy(segment, ValueLayout.JAVA_INT_UNALIGNED, index, ints, 0, count);
+			long[] result = new long[count];
+			for (int i = 0; i < count; i++) {
+				result[i] = ints[i];
+			}
+			return result;
+		}
+		return getLongArray(index, count);
+	}
+
+	@Override
+	public double getDouble(int index) {
+		return segment.get(ValueLayout.JAVA_DOUBLE_UNALIGNED, index);
+	}
+
+	@Override
+	public double[] getDoubleArray(int index, int count) {
+		double[] result = new double[count];
+		MemorySegment.copy(segment, ValueLayout.JAVA_DOUBLE_UNALIGNED, index, result, 0, count);
+		return result;
+	}
+
+	@Override
+	public float getFloat(int index) {
+		return segment.get(ValueLayout.JAVA_FLOAT_UNALIGNED, index);
+	}
+
+	@Override
+	public float[] getFloatArray(int index, int count) {
+		float[] result = new float[count];
+		MemorySegment.copy(segment, ValueLayout.JAVA_FLOAT_UNALIGNED, index, result, 0, count);
+		return result;
+	}
+
+	@Override
+	public int getInt(int index) {
+		return segment.get(ValueLayout.JAVA_INT_UNALIGNED, index);
+	}
+
+	@Override
+	public int[] getIntArray(int index, int count) {
+		int[] result = new int[count];
+		MemorySegment.copy(segment, ValueLayout.JAVA_INT_UNALIGNED, index, result, 0, count);
+		return result;
+	}
+
+	@Override
+	public long getLong(int index) {
+		return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, index);
+	}
+
+	@Override
+	public long[] getLongArray(int index, int count) {
+		long[] result = new long[count];
+		MemorySegment.copy(segment, ValueLayout.JAVA_LONG_UNALIGNED, index, result, 0, count);
+		return result;
+	}
+
+	@Override
+	public INativeHandle getNativeHandle(int index) {
+		return new FfmNativeHandle(segment.get(ValueLayout.ADDRESS_UNALIGNED, index).address());
+	}
+
+	public MemorySegment getSegment() {
+		return segment;
+	}
+
+	@Override
+	public short getShort(int index) {
+		return segment.get(ValueLayout.JAVA_SHORT_UNALIGNED, index);
+	}
+
+	@Override
+	public short[] getShortArray(int index, int count) {
+		short[] result = new short[count];
+		MemorySegment.copy(segment, ValueLayout.JAVA_SHORT_UNALIGNED, index, result, 0, count);
+		return result;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String getString(int index) {
+		return FfmTools.getString(segment, index, FfmTools.CHARSET, 1);
+	}
+
+	@Override
+	public String getWideString(int index) {
+		return FfmTools.getString(segment, index, FfmTools.WIDE_CHARSET, FfmTools.WCHAR_SIZE);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(getAddress());
+	}
+
+	@Override
+	public boolean isOwner() {
+		return cleanable != null;
+	}
+
+	@Override
+	public INativeHandle offset(int offset) {
+		return new FfmNativeHandle(this, offset);
+	}
+
+	@Override
+	public void setByte(int index, byte value) {
+		segment.set(ValueLayout.JAVA_BYTE, index, value);
+	}
+
+	@Override
+	public void setByteArray(int index, byte[] value, int valueOffset, int valueCount) {
+		MemorySegment.copy(value, valueOffset, segment, ValueLayout.JAVA_BYTE, index, valueCount);
+	}
+
+	@Override
+	public void setCLong(int index, long value) {
+		if (FfmTools.LONG_SIZE == 4) {
+			segment.set(ValueLayout.JAVA_INT_UNALIGNED, index, (int) value);
+			return;
+		}
+		segment.set(ValueLayout.JAVA_LONG_UNALIGNED, index, value);
+	}
+
+	@Override
+	public void setCLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		if (FfmTools.LONG_SIZE == 4) {
+			int[] ints = new int[valueCount];
+			for (int i = 0; i < valueCount; i++) {
+				ints[i] = (int) value[valueOffset + i];
+			}
+			MemorySegment.copy(ints, 0, segment, ValueLayout.JAVA_INT_UNALIGNED, index, valueCount);
+			return;
+		}
+		setLongArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setDouble(int index, double value) {
+		segment.set(ValueLayout.JAVA_DOUBLE_UNALIGNED, index, value);
+	}
+
+	@Override
+	public void setDoubleArray(int index, double[] value, int valueOffset, int valueCount) {
+		MemorySegment.copy(value, valueOffset, segment, ValueLayout.JAVA_DOUBLE_UNALIGNED, index, valueCount);
+	}
+
+	@Override
+	public void setFloat(int index, float value) {
+		segment.set(ValueLayout.JAVA_FLOAT_UNALIGNED, index, value);
+	}
+
+	@Override
+	public void setFloatArray(int index, float[] value, int valueOffset, int valueCount) {
+		MemorySegment.copy(value, valueOffset, segment, ValueLayout.JAVA_FLOAT_UNALIGNED, index, valueCount);
+	}
+
+	@Override
+	public void setInt(int index, int value) {
+		segment.set(ValueLayout.JAVA_INT_UNALIGNED, index, value);
+	}
+
+	@Override
+	public void setIntArray(int index, int[] value, int valueOffset, int valueCount) {
+		MemorySegment.copy(value, valueOffset, segment, ValueLayout.JAVA_INT_UNALIGNED, index, valueCount);
+	}
+
+	@Override
+	public void setLong(int index, long value) {
+		segment.set(ValueLayout.JAVA_LONG_UNALIGNED, index, value);
+	}
+
+	@Override
+	public void setLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		MemorySegment.copy(value, valueOffset, segment, ValueLayout.JAVA_LONG_UNALIGNED, index, valueCount);
+	}
+
+	@Override
+	public void setNativeHandle(int index, INativeHandle handle) {
+		segment.set(ValueLayout.ADDRESS_UNALIGNED, index, MemorySegment.ofAddress(handle.getAddress()));
+	}
+
+	@Override
+	public void setShort(int index, short value) {
+		segment.set(ValueLayout.JAVA_SHORT_UNALIGNED, index, value);
+	}
+
+	@Override
+	public void setShortArray(int index, short[] value, int valueOffset, int valueCount) {
+		MemorySegment.copy(value, valueOffset, segment, ValueLayout.JAVA_SHORT_UNALIGNED, index, valueCount);
+	}
+
+	@Override
+	public void setSize(int pSize) {
+		this.size = pSize;
+	}
+
+	@Override
+	public void setString(int index, String value) {
+		FfmTools.setString(segment, index, value, FfmTools.CHARSET, 1);
+	}
+
+	@Override
+	public void setWideString(int index, String value) {
+		FfmTools.setString(segment, index, value, FfmTools.WIDE_CHARSET, FfmTools.WCHAR_SIZE);
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.intarsys.nativec.api.ICallback;
+import de.intarsys.nativec.api.INativeArena;
+import de.intarsys.nativec.api.INativeCallback;
+import de.intarsys.nativec.api.INativeFunction;
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.INativeInterface;
+import de.intarsys.nativec.api.INativeLibrary;
+
+/**
+ * An {@link INativeInterface} implemented using the Java Foreign Function &
+ * Memory API (java.lang.foreign).
+ * <p>
+ * Memory access is performed via {@link MemorySegment} and native calls via
+ * downcall method handles, both of which can be inlined by the JIT compiler.
+ * There is no JNI transition for memory access at all.
+ * <p>
+ * The JVM should be started with "--enable-native-access=ALL-UNNAMED" to avoid
+ * warnings about restricted method access.
+ * <p>
+ * Only the default calling convention of the platform is supported, the
+ * "stdcall" convention is accepted and treated as an alias (which is the right
+ * thing on all 64 bit platforms).
+ */
+public class FfmNativeInterface implements INativeInterface {
+
+	private List<String> searchPaths = new CopyOnWriteArrayList<String>();
+
+	@Override
+	public void addSearchPath(String path) {
+		if (searchPaths.contains(path)) {
+			return;
+		}
+		searchPaths.add(path);
+	}
+
+	@Override
+	public INativeHandle allocate(int size) {
+		return FfmNativeHandle.allocate(size, true);
+	}
+
+	@Override
+	public INativeHandle allocateUninitialized(int size) {
+		return FfmNativeHandle.allocate(size, false);
+	}
+
+	protected void checkCallingConvention(Object callingConvention) {
+		if (callingConvention != INativeFunction.CallingConventionCdecl
+				&& callingConvention != INativeFunction.CallingConventionStdcall) {
+			throw new IllegalArgumentException("illegal calling convention");
+		}
+	}
+
+	@Override
+	public int compare(INativeHandle a, INativeHandle b, int length) {
+		if (!a.isNative() || !b.isNative()) {
+			return INativeInterface.super.compare(a, b, length);
+		}
+		MemorySegment segmentA = toSegment(a);
+		MemorySegment segmentB = toSegment(b);
+		long index = MemorySegment.mismatch(segmentA, 0, length, segmentB, 0, length);
+		if (index < 0) {
+			return 0;
+		}
+		return Byte.toUnsignedInt(segmentA.get(ValueLayout.JAVA_BYTE, index))
+				- Byte.toUnsignedInt(segmentB.get(ValueLayout.JAVA_BYTE, index));
+	}
+
+	@Override
+	public void copy(INativeHandle source, int sourceOffset, INativeHandle target, int targetOffset, int length) {
+		if (!source.isNative() || !target.isNative()) {
+			INativeInterface.super.copy(source, sourceOffset, target, targetOffset, length);
+			return;
+		}
+		MemorySegment.copy(toSegment(source), sourceOffset, toSegment(target), targetOffset, length);
+	}
+
+	@Override
+	public INativeCallback createCallback(ICallback callback) {
+		if (callback == null) {
+			return null;
+		}
+		checkCallingConvention(callback.getCallingConvention());
+		return new FfmNativeCallback(callback);
+	}
+
+	@Override
+	public INativeFunction createFunction(long address) {
+		return createFunction(address, INativeFunction.CallingConventionCdecl);
+	}
+
+	@Override
+	public INativeFunction createFunction(long address, Object callingConvention) {
+		checkCallingConvention(callingConvention);
+		return new FfmNativeFunction(MemorySegment.ofAddress(address));
+	}
+
+	@Override
+	public INativeHandle createHandle(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			throw new IllegalArgumentException("buffer must be direct");
+		}
+		// the segment keeps the buffer reachable
+		FfmNativeHandle handle = new FfmNativeHandle(MemorySegment.ofBuffer(buffer));
+		handle.setSize(buffer.remaining());
+		return handle;
+	}
+
+	@Override
+	public INativeHandle createHandle(long address) {
+		return new FfmNativeHandle(address);
+	}
+
+	@Override
+	public INativeLibrary createLibrary(String name) {
+		return createLibrary(name, INativeFunction.CallingConventionCdecl);
+	}
+
+	@Override
+	public INativeLibrary createLibrary(String name, Object callingConvention) {
+		checkCallingConvention(callingConvention);
+		try {
+			return new FfmNativeLibrary(this, name);
+		} catch (Throwable t) {
+			Logger.getLogger("nativec").log(Level.FINEST, "FFM error creating library '" + name + "' (" + t.getMessage()
+					+ ")");
+			throw t;
+		}
+	}
+
+	@Override
+	public void fill(INativeHandle handle, int offset, int length, byte value) {
+		if (!handle.isNative()) {
+			INativeInterface.super.fill(handle, offset, length, value);
+			return;
+		}
+		toSegment(handle).asSlice(offset, length).fill(value);
+	}
+
+	protected List<String> getSearchPaths() {
+		return searchPaths;
+	}
+
+	@Override
+	public int longSize() {
+		return FfmTools.LONG_SIZE;
+	}
+
+	@Override
+	public INativeArena openArena() {
+		return new FfmNativeArena(this);
+	}
+
+	@Override
+	public int pointerSize() {
+		return FfmTools.POINTER_SIZE;
+	}
+
+	/**
+	 * The {@link MemorySegment} of <code>handle</code>, which may be from
+	 * another {@link INativeInterface}.
+	 */
+	protected MemorySegment toSegment(INativeHandle handle) {
+		if (handle instanceof FfmNativeHandle) {
+			return ((FfmNativeHandle) handle).getSegment();
+		}
+		return FfmTools.ofAddress(handle.getAddress());
+	}
+
+	@Override
+	public int wideCharSize() {
+		return FfmTools.WCHAR_SIZE;
+	}
+
+}
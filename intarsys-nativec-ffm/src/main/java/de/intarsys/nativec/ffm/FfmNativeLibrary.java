@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.intarsys.nativec.api.INativeFunction;
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.INativeLibrary;
+
+public class FfmNativeLibrary implements INativeLibrary {
+
+	/**
+	 * The library is unloaded when this and all symbols resolved from it are no
+	 * longer referenced.
+	 */
+	final private Arena arena = Arena.ofAuto();
+
+	/**
+	 * The functions already resolved, by name. Reusing the function reuses its
+	 * downcall handles, too.
+	 */
+	final private Map<String, INativeFunction> functions = new ConcurrentHashMap<>();
+
+	final private SymbolLookup lookup;
+
+	final private String name;
+
+	final private FfmNativeInterface nativeInterface;
+
+	public FfmNativeLibrary(FfmNativeInterface nativeInterface, String name) {
+		this.nativeInterface = nativeInterface;
+		this.name = name;
+		this.lookup = createLookup(name);
+	}
+
+	protected SymbolLookup createLookup(String libraryName) {
+		String mappedName = System.mapLibraryName(libraryName);
+		for (String path : nativeInterface.getSearchPaths()) {
+			Path file = Paths.get(path, mappedName);
+			if (Files.exists(file)) {
+				return SymbolLookup.libraryLookup(file, arena);
+			}
+		}
+		if (!FfmTools.WINDOWS && ("c".equals(libraryName) || "libc".equals(libraryName))) { //$NON-NLS-1$ //$NON-NLS-2$
+			// the c runtime is already loaded and may not be found by name
+			return FfmTools.LINKER.defaultLookup();
+		}
+		try {
+			return SymbolLookup.libraryLookup(libraryName, arena);
+		} catch (IllegalArgumentException e) {
+			try {
+				return SymbolLookup.libraryLookup(mappedName, arena);
+			} catch (IllegalArgumentException ee) {
+				throw new UnsatisfiedLinkError("Unable to load library '" + libraryName + "'");
+			}
+		}
+	}
+
+	protected MemorySegment find(String symbolName) {
+		return lookup.find(symbolName).orElseThrow(
+				() -> new UnsatisfiedLinkError("Error looking up '" + symbolName + "' in '" + name + "'"));
+	}
+
+	protected INativeFunction createFunction(String functionName) {
+		return new FfmNativeFunction(find(functionName));
+	}
+
+	@Override
+	public INativeFunction getFunction(String functionName) {
+		// plain get first, a hit does not lock
+		INativeFunction function = functions.get(functionName);
+		if (function == null) {
+			function = functions.computeIfAbsent(functionName, this::createFunction);
+		}
+		return function;
+	}
+
+	@Override
+	public INativeHandle getGlobal(String symbolName) {
+		return new FfmNativeHandle(find(symbolName).reinterpret(Long.MAX_VALUE));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	protected FfmNativeInterface getNativeInterface() {
+		return nativeInterface;
+	}
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Common platform constants and marshalling helpers for the Foreign Function &
+ * Memory implementation.
+ */
+public class FfmTools {
+
+	public static final Linker LINKER = Linker.nativeLinker();
+
+	public static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows"); //$NON-NLS-1$ //$NON-NLS-2$
+
+	public static final int POINTER_SIZE = (int) ValueLayout.ADDRESS.byteSize();
+
+	/**
+	 * The size of a c "long". Windows is LLP64, all other supported platforms
+	 * are LP64.
+	 */
+	public static final int LONG_SIZE = WINDOWS ? 4 : POINTER_SIZE;
+
+	/**
+	 * The size of a c "wchar_t".
+	 */
+	public static final int WCHAR_SIZE = WINDOWS ? 2 : 4;
+
+	public static final ValueLayout C_LONG = LONG_SIZE == 4 ? ValueLayout.JAVA_INT : ValueLayout.JAVA_LONG;
+
+	public static final ValueLayout C_WCHAR = WCHAR_SIZE == 2 ? ValueLayout.JAVA_CHAR : ValueLayout.JAVA_INT;
+
+	/**
+	 * The encoding for native strings. Like the JNA implementation we stick to
+	 * the platform encoding.
+	 */
+	public static final Charset CHARSET = Charset.defaultCharset();
+
+	public static final Charset WIDE_CHARSET;
+
+	private static final MethodHandle CALLOC = LINKER.downcallHandle(
+			LINKER.defaultLookup().find("calloc").orElseThrow(), //$NON-NLS-1$
+			FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG));
+
+	/**
+	 * Releases the c heap memory of unreachable {@link FfmNativeHandle}
+	 * instances.
+	 */
+	public static final Cleaner CLEANER = Cleaner.create();
+
+	private static final MethodHandle FREE = LINKER.downcallHandle(
+			LINKER.defaultLookup().find("free").orElseThrow(), //$NON-NLS-1$
+			FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+
+	private static final MethodHandle MALLOC = LINKER.downcallHandle(
+			LINKER.defaultLookup().find("malloc").orElseThrow(), //$NON-NLS-1$
+			FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+
+	static {
+		boolean little = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+		if (WCHAR_SIZE == 2) {
+			WIDE_CHARSET = little ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE;
+		} else {
+			WIDE_CHARSET = Charset.forName(little ? "UTF-32LE" : "UTF-32BE"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/**
+	 * Allocate a zero terminated string in <code>arena</code>.
+	 *
+	 * @param arena     The arena to allocate from
+	 * @param value     The string value
+	 * @param charset   The encoding
+	 * @param charSize  The size of a single character unit
+	 * @return The new segment
+	 */
+	public static MemorySegment allocateString(Arena arena, String value, Charset charset, int charSize) {
+		byte[] bytes = value.getBytes(charset);
+		MemorySegment segment = arena.allocate(bytes.length + charSize, charSize);
+		MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+		return segment;
+	}
+
+	/**
+	 * Allocate <code>size</code> zero initialized bytes from the c heap. The
+	 * memory must be released via {@link #free(MemorySegment)}.
+	 *
+	 * @param size The size in bytes
+	 * @return The zero length segment at the new memory
+	 */
+	public static MemorySegment calloc(long size) {
+		MemorySegment segment;
+		try {
+			segment = (MemorySegment) CALLOC.invokeExact(1L, size);
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+		if (segment.address() == 0) {
+			throw new OutOfMemoryError("can not allocate " + size + " bytes");
+		}
+		return segment;
+	}
+
+	/**
+	 * Release memory acquired via {@link #malloc(long)} or
+	 * {@link #calloc(long)}.
+	 *
+	 * @param segment The memory
+	 */
+	public static void free(MemorySegment segment) {
+		try {
+			FREE.invokeExact(segment);
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	/**
+	 * Read a zero terminated string at <code>offset</code> within
+	 * <code>segment</code>.
+	 *
+	 * @param segment  The memory
+	 * @param offset   The byte offset within the memory
+	 * @param charset  The encoding
+	 * @param charSize The size of a single character unit
+	 * @return The decoded string
+	 */
+	public static String getString(MemorySegment segment, long offset, Charset charset, int charSize) {
+		long length = 0;
+		if (charSize == 1) {
+			while (segment.get(ValueLayout.JAVA_BYTE, offset + length) != 0) {
+				length++;
+			}
+		} else if (charSize == 2) {
+			while (segment.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + length) != 0) {
+				length += 2;
+			}
+		} else {
+			while (segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset + length) != 0) {
+				length += 4;
+			}
+		}
+		byte[] bytes = segment.asSlice(offset, length).toArray(ValueLayout.JAVA_BYTE);
+		return new String(bytes, charset);
+	}
+
+	/**
+	 * The layout representing <code>carrier</code> in a native call.
+	 *
+	 * @param carrier The Java carrier type
+	 * @return The layout
+	 */
+	public static MemoryLayout layout(Class<?> carrier) {
+		if (carrier == int.class) {
+			return ValueLayout.JAVA_INT;
+		} else if (carrier == long.class) {
+			return ValueLayout.JAVA_LONG;
+		} else if (carrier == short.class) {
+			return ValueLayout.JAVA_SHORT;
+		} else if (carrier == byte.class) {
+			return ValueLayout.JAVA_BYTE;
+		} else if (carrier == char.class) {
+			return ValueLayout.JAVA_CHAR;
+		} else if (carrier == float.class) {
+			return ValueLayout.JAVA_FLOAT;
+		} else if (carrier == double.class) {
+			return ValueLayout.JAVA_DOUBLE;
+		} else if (carrier == MemorySegment.class) {
+			return ValueLayout.ADDRESS;
+		}
+		throw new IllegalArgumentException("no layout for '" + carrier + "'");
+	}
+
+	/**
+	 * Allocate <code>size</code> bytes from the c heap. The memory is not
+	 * initialized and must be released via {@link #free(MemorySegment)}.
+	 *
+	 * @param size The size in bytes
+	 * @return The zero length segment at the new memory
+	 */
+	public static MemorySegment malloc(long size) {
+		MemorySegment segment;
+		try {
+			segment = (MemorySegment) MALLOC.invokeExact(size);
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+		if (segment.address() == 0) {
+			throw new OutOfMemoryError("can not allocate " + size + " bytes");
+		}
+		return segment;
+	}
+
+	/**
+	 * A segment of unknown size starting at <code>address</code>.
+	 *
+	 * @param address The memory address
+	 * @return The segment
+	 */
+	public static MemorySegment ofAddress(long address) {
+		return MemorySegment.ofAddress(address).reinterpret(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Write a zero terminated string at <code>offset</code> within
+	 * <code>segment</code>.
+	 *
+	 * @param segment  The memory
+	 * @param offset   The byte offset within the memory
+	 * @param value    The string value
+	 * @param charset  The encoding
+	 * @param charSize The size of a single character unit
+	 */
+	public static void setString(MemorySegment segment, long offset, String value, Charset charset, int charSize) {
+		byte[] bytes = value.getBytes(charset);
+		MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, offset, bytes.length);
+		segment.asSlice(offset + bytes.length, charSize).fill((byte) 0);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import de.intarsys.nativec.type.INativeObject;
+import de.intarsys.nativec.type.INativeType;
+import de.intarsys.nativec.type.NativeBuffer;
+import de.intarsys.nativec.type.NativeString;
+
+/**
+ * A scope for c memory with a deterministic lifetime.
+ * <p>
+ * All memory allocated from the arena is released at once when the arena is
+ * closed, regardless of any Java references still held. Accessing an object
+ * created from the arena after {@link #close()} is undefined.
+ * 
+ * <pre>
+ * try (INativeArena arena = NativeInterface.get().openArena()) {
+ * 	MyStruct struct = (MyStruct) arena.create(MyStruct.META);
+ * 	NativeString name = arena.createString(&quot;name&quot;);
+ * 	function.invoke(Integer.class, struct, name);
+ * }
+ * </pre>
+ * 
+ * An arena is not thread safe, it is meant to be used for the duration of a
+ * single request or call sequence.
+ */
+public interface INativeArena extends AutoCloseable {
+
+	/**
+	 * Allocate zero initialized c memory with the lifetime of this arena.
+	 * 
+	 * @param size
+	 *            The size in bytes.
+	 * @return The new allocated {@link INativeHandle}
+	 */
+	public INativeHandle allocate(int size);
+
+	/**
+	 * Release all memory allocated from this arena.
+	 */
+	@Override
+	public void close();
+
+	/**
+	 * Create a new {@link INativeObject} of <code>type</code> in memory of this
+	 * arena.
+	 * 
+	 * @param type
+	 *            The type of the new object.
+	 * @return The new {@link INativeObject}
+	 */
+	public INativeObject create(INativeType type);
+
+	/**
+	 * Create a {@link NativeBuffer} with a copy of <code>bytes</code> in
+	 * memory of this arena.
+	 * 
+	 * @param bytes
+	 *            The buffer content.
+	 * @return The new {@link NativeBuffer}
+	 */
+	public NativeBuffer createBuffer(byte[] bytes);
+
+	/**
+	 * Create a {@link NativeString} with <code>value</code> in memory of this
+	 * arena. The string is encoded in the platform encoding.
+	 * 
+	 * @param value
+	 *            The string value.
+	 * @return The new {@link NativeString}
+	 */
+	public NativeString createString(String value);
+
+	/**
+	 * <code>true</code> if this arena is not yet closed.
+	 * 
+	 * @return <code>true</code> if this arena is not yet closed.
+	 */
+	public boolean isOpen();
+}
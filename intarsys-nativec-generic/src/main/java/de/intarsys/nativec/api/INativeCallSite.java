@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+/**
+ * An {@link INativeFunction} bound to a fixed signature.
+ * <p>
+ * The marshalling rules for return value and parameters are resolved once when
+ * binding, so that repeated invocations do not have to inspect the runtime
+ * types of the arguments. Use this for functions that are called very often,
+ * for example from library facades.
+ * 
+ * @param <T> The return type
+ */
+public interface INativeCallSite<T> {
+
+	/**
+	 * The {@link INativeFunction} that is invoked.
+	 * 
+	 * @return The {@link INativeFunction} that is invoked.
+	 */
+	public INativeFunction getFunction();
+
+	/**
+	 * The declared parameter types.
+	 * 
+	 * @return The declared parameter types.
+	 */
+	public Class<?>[] getParameterTypes();
+
+	/**
+	 * The declared return type.
+	 * 
+	 * @return The declared return type.
+	 */
+	public Class<T> getReturnType();
+
+	/**
+	 * Invoke the native function.
+	 * <p>
+	 * The arguments must match the declared parameter types. The argument array
+	 * is not modified.
+	 * 
+	 * @param objects
+	 *            The arguments to the function
+	 * @return The result of executing the function
+	 */
+	public T invoke(Object... objects);
+}
@@ -37,6 +37,24 @@ public interface INativeFunction {
 	public static final Object CallingConventionCdecl = new Object();
 	public static final Object CallingConventionStdcall = new Object();
 
+	/**
+	 * Bind the native function to a fixed signature.
+	 * <p>
+	 * The returned {@link INativeCallSite} is reusable and thread safe. The
+	 * default implementation simply delegates to
+	 * {@link #invoke(Class, Object...)}, implementations should resolve the
+	 * marshalling for the signature once.
+	 * 
+	 * @param returnType
+	 *            The expected return type.
+	 * @param parameterTypes
+	 *            The types of the arguments to the function
+	 * @return The {@link INativeCallSite} for the signature.
+	 */
+	public default <T> INativeCallSite<T> bind(Class<T> returnType, Class<?>... parameterTypes) {
+		return new NativeCallSite<T>(this, returnType, parameterTypes);
+	}
+
 	/**
 	 * Invoke the native function.
 	 * 
@@ -47,4 +65,69 @@ public interface INativeFunction {
 	 * @return The result of executing the function
 	 */
 	public <T> T invoke(Class<T> returnType, Object... objects);
+
+	/**
+	 * Invoke the native function with a c "int" return value.
+	 * <p>
+	 * The default implementation unboxes the result of
+	 * {@link #invoke(Class, Object...)}, implementations should avoid the
+	 * wrapper.
+	 * 
+	 * @param objects
+	 *            The arguments to the function
+	 * @return The result of executing the function
+	 */
+	public default int invokeInt(Object... objects) {
+		return invoke(Integer.class, objects);
+	}
+
+	/**
+	 * Invoke the native function with a 64 bit integer return value.
+	 * 
+	 * @param objects
+	 *            The arguments to the function
+	 * @return The result of executing the function
+	 */
+	public default long invokeLong(Object... objects) {
+		return invoke(Long.class, objects);
+	}
+
+	/**
+	 * Invoke the native function with a c "long" return value. The result is
+	 * sign extended from the platform long size.
+	 * 
+	 * @param objects
+	 *            The arguments to the function
+	 * @return The result of executing the function
+	 */
+	public default long invokeCLong(Object... objects) {
+		return invoke(CLong.class, objects).longValue();
+	}
+
+	/**
+	 * Invoke the native function with a c "double" return value.
+	 * 
+	 * @param objects
+	 *            The arguments to the function
+	 * @return The result of executing the function
+	 */
+	public default double invokeDouble(Object... objects) {
+		return invoke(Double.class, objects);
+	}
+
+	/**
+	 * Invoke the native function with a pointer return value, answering the
+	 * plain address instead of an {@link INativeHandle}.
+	 * 
+	 * @param objects
+	 *            The arguments to the function
+	 * @return The address returned by the function, 0 for a NULL pointer
+	 */
+	public default long invokeAddress(Object... objects) {
+		INativeHandle handle = invoke(INativeHandle.class, objects);
+		if (handle == null) {
+			return 0;
+		}
+		return handle.getAddress();
+	}
 }
@@ -29,12 +29,58 @@
  */
 package de.intarsys.nativec.api;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * A "handle" to a piece of memory (in c space).
  * <p>
  * The handle combines an address and a memory chunk of a specified size.
+ * <p>
+ * A handle returned by {@link INativeInterface#allocate(int)} owns its memory.
+ * The memory is released upon {@link #close()} or, if never closed, when the
+ * handle is garbage collected. Handles to foreign memory, such as those created
+ * via {@link INativeInterface#createHandle(long)} or {@link #offset(int)}, do
+ * not own memory and ignore {@link #close()}.
+ * <p>
+ * The array accessors such as {@link #getIntArray(int, int)} access each
+ * element separately by default, implementations transfer the whole array at
+ * once.
  */
-public interface INativeHandle {
+public interface INativeHandle extends AutoCloseable {
+
+	/**
+	 * A direct {@link ByteBuffer} of <code>length</code> bytes sharing the memory
+	 * at byte offset <code>offset</code> from the start of the memory chunk. No
+	 * data is copied, the buffer uses the native byte order.
+	 * <p>
+	 * The buffer is valid only as long as the memory, keep a reference to this
+	 * handle while using it. A handle that is not {@link #isNative()} answers a
+	 * heap buffer on its copy of the memory.
+	 * <p>
+	 * The default implementation can not share the memory, it answers a read
+	 * only heap buffer on a copy of the bytes. Implementations should override
+	 * it.
+	 * 
+	 * @param offset The byte offset from the start of the memory chunk
+	 * @param length The size of the buffer in bytes
+	 * @return A direct {@link ByteBuffer} on the memory chunk
+	 */
+	default ByteBuffer asByteBuffer(int offset, int length) {
+		return ByteBuffer.wrap(getByteArray(offset, length)).asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Release the memory if owned by this handle (see {@link #isOwner()}). Any
+	 * access to the memory after closing, via this or any other handle, is
+	 * undefined.
+	 * <p>
+	 * Closing twice is allowed.
+	 */
+	@Override
+	default void close() {
+		// not an owner
+	}
 
 	/**
 	 * The start address of the memory chunk
@@ -71,8 +117,68 @@ public interface INativeHandle {
 	 */
 	long getCLong(int index);
 
+	/**
+	 * Marshal the data at byte offset <code>index</code> from the start of the
+	 * memory chunk to a platform long array of length <code>count</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param count The size of the array
+	 * @return A platform long array marshaled from the memory chunk
+	 */
+	default long[] getCLongArray(int index, int count) {
+		long[] result = new long[count];
+		int size = NativeInterface.get().longSize();
+		for (int i = 0; i < count; i++) {
+			result[i] = getCLong(index + i * size);
+		}
+		return result;
+	}
+
+	/**
+	 * Marshal the data at byte offset <code>index</code> from the start of the
+	 * memory chunk to a double.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @return A double marshaled from the memory chunk
+	 */
+	default double getDouble(int index) {
+		return Double.longBitsToDouble(getLong(index));
+	}
+
+	/**
+	 * Marshal the data at byte offset <code>index</code> from the start of the
+	 * memory chunk to a double array of length <code>count</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param count The size of the array
+	 * @return A double array marshaled from the memory chunk
+	 */
+	default double[] getDoubleArray(int index, int count) {
+		double[] result = new double[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = getDouble(index + i * 8);
+		}
+		return result;
+	}
+
 	float getFloat(int index);
 
+	/**
+	 * Marshal the data at byte offset <code>index</code> from the start of the
+	 * memory chunk to a float array of length <code>count</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param count The size of the array
+	 * @return A float array marshaled from the memory chunk
+	 */
+	default float[] getFloatArray(int index, int count) {
+		float[] result = new float[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = getFloat(index + i * 4);
+		}
+		return result;
+	}
+
 	/**
 	 * Marshal the data at byte offset <code>index</code> from the start of the
 	 * memory chunk to an int.
@@ -82,6 +188,22 @@ public interface INativeHandle {
 	 */
 	int getInt(int index);
 
+	/**
+	 * Marshal the data at byte offset <code>index</code> from the start of the
+	 * memory chunk to an int array of length <code>count</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param count The size of the array
+	 * @return An int array marshaled from the memory chunk
+	 */
+	default int[] getIntArray(int index, int count) {
+		int[] result = new int[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = getInt(index + i * 4);
+		}
+		return result;
+	}
+
 	/**
 	 * Marshal the data at byte offset <code>index</code> from the start of the
 	 * memory chunk to a long value (which is always 8 byte).
@@ -91,6 +213,22 @@ public interface INativeHandle {
 	 */
 	long getLong(int index);
 
+	/**
+	 * Marshal the data at byte offset <code>index</code> from the start of the
+	 * memory chunk to a long array of length <code>count</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param count The size of the array
+	 * @return A long array marshaled from the memory chunk
+	 */
+	default long[] getLongArray(int index, int count) {
+		long[] result = new long[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = getLong(index + i * 8);
+		}
+		return result;
+	}
+
 	/**
 	 * Marshal the data at byte offset <code>index</code> from the start of the
 	 * memory chunk to an {@link INativeHandle}.
@@ -109,6 +247,22 @@ public interface INativeHandle {
 	 */
 	short getShort(int index);
 
+	/**
+	 * Marshal the data at byte offset <code>index</code> from the start of the
+	 * memory chunk to a short array of length <code>count</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param count The size of the array
+	 * @return A short array marshaled from the memory chunk
+	 */
+	default short[] getShortArray(int index, int count) {
+		short[] result = new short[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = getShort(index + i * 2);
+		}
+		return result;
+	}
+
 	/**
 	 * The size for the handle in bytes.
 	 * <p>
@@ -136,6 +290,30 @@ public interface INativeHandle {
 	 */
 	String getWideString(int index);
 
+	/**
+	 * <code>true</code> if this handle accesses the c memory at
+	 * {@link #getAddress()}. A handle on a copy of the memory, like a
+	 * {@link NativeSnapshotHandle}, is not native, operations working on the
+	 * address (copy, fill, compare, passing it to a function) would bypass the
+	 * copy.
+	 * 
+	 * @return <code>true</code> if this handle accesses the memory at its
+	 *         address
+	 */
+	default boolean isNative() {
+		return true;
+	}
+
+	/**
+	 * <code>true</code> if this handle owns its memory, i.e. {@link #close()}
+	 * releases it.
+	 * 
+	 * @return <code>true</code> if this handle owns its memory
+	 */
+	default boolean isOwner() {
+		return false;
+	}
+
 	/**
 	 * Create a new {@link INativeHandle}, offset from this by <code>offset</code>
 	 * bytes.
@@ -174,8 +352,62 @@ public interface INativeHandle {
 	 */
 	void setCLong(int index, long value);
 
+	/**
+	 * Write a platform long array to the memory at byte offset <code>index</code> from the
+	 * start of the memory chunk. The method will write <code>valueCount</code>
+	 * elements from <code>value</code> starting at <code>valueOffset</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param value The value to write.
+	 */
+	default void setCLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		int size = NativeInterface.get().longSize();
+		for (int i = 0; i < valueCount; i++) {
+			setCLong(index + i * size, value[valueOffset + i]);
+		}
+	}
+
+	/**
+	 * Write a double to the memory at byte offset <code>index</code> from the
+	 * start of the memory chunk.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param value The value to write.
+	 */
+	default void setDouble(int index, double value) {
+		setLong(index, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Write a double array to the memory at byte offset <code>index</code> from the
+	 * start of the memory chunk. The method will write <code>valueCount</code>
+	 * elements from <code>value</code> starting at <code>valueOffset</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param value The value to write.
+	 */
+	default void setDoubleArray(int index, double[] value, int valueOffset, int valueCount) {
+		for (int i = 0; i < valueCount; i++) {
+			setDouble(index + i * 8, value[valueOffset + i]);
+		}
+	}
+
 	void setFloat(int index, float value);
 
+	/**
+	 * Write a float array to the memory at byte offset <code>index</code> from the
+	 * start of the memory chunk. The method will write <code>valueCount</code>
+	 * elements from <code>value</code> starting at <code>valueOffset</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param value The value to write.
+	 */
+	default void setFloatArray(int index, float[] value, int valueOffset, int valueCount) {
+		for (int i = 0; i < valueCount; i++) {
+			setFloat(index + i * 4, value[valueOffset + i]);
+		}
+	}
+
 	/**
 	 * Write an int to the memory at byte offset <code>index</code> from the start
 	 * of the memory chunk.
@@ -185,6 +417,20 @@ public interface INativeHandle {
 	 */
 	void setInt(int index, int value);
 
+	/**
+	 * Write an int array to the memory at byte offset <code>index</code> from the
+	 * start of the memory chunk. The method will write <code>valueCount</code>
+	 * elements from <code>value</code> starting at <code>valueOffset</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param value The value to write.
+	 */
+	default void setIntArray(int index, int[] value, int valueOffset, int valueCount) {
+		for (int i = 0; i < valueCount; i++) {
+			setInt(index + i * 4, value[valueOffset + i]);
+		}
+	}
+
 	/**
 	 * Write a long to the memory at byte offset <code>index</code> from the start
 	 * of the memory chunk.
@@ -194,6 +440,20 @@ public interface INativeHandle {
 	 */
 	void setLong(int index, long value);
 
+	/**
+	 * Write a long array to the memory at byte offset <code>index</code> from the
+	 * start of the memory chunk. The method will write <code>valueCount</code>
+	 * elements from <code>value</code> starting at <code>valueOffset</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param value The value to write.
+	 */
+	default void setLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		for (int i = 0; i < valueCount; i++) {
+			setLong(index + i * 8, value[valueOffset + i]);
+		}
+	}
+
 	/**
 	 * Write an {@link INativeHandle} to the memory at byte offset
 	 * <code>index</code> from the start of the memory chunk.
@@ -212,6 +472,20 @@ public interface INativeHandle {
 	 */
 	void setShort(int index, short value);
 
+	/**
+	 * Write a short array to the memory at byte offset <code>index</code> from the
+	 * start of the memory chunk. The method will write <code>valueCount</code>
+	 * elements from <code>value</code> starting at <code>valueOffset</code>.
+	 * 
+	 * @param index The byte offset from the start of the memory chunk
+	 * @param value The value to write.
+	 */
+	default void setShortArray(int index, short[] value, int valueOffset, int valueCount) {
+		for (int i = 0; i < valueCount; i++) {
+			setShort(index + i * 2, value[valueOffset + i]);
+		}
+	}
+
 	/**
 	 * Set the valid size for the handle to <code>count</code> bytes.
 	 * <p>
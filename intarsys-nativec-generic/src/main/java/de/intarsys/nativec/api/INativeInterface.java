@@ -29,6 +29,12 @@
  */
 package de.intarsys.nativec.api;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
 /**
  * The abstraction of a generic interface to c native code.
  */
@@ -51,6 +57,72 @@ public interface INativeInterface {
 	 */
 	public INativeHandle allocate(int size);
 
+	/**
+	 * Allocate c memory without initializing it and return the respective
+	 * {@link INativeHandle}.
+	 * <p>
+	 * The content of the memory is undefined. Use this only where the memory
+	 * is completely written before it is read, for example when copying a
+	 * Java array to c memory.
+	 * <p>
+	 * The default implementation simply uses {@link #allocate(int)}.
+	 * 
+	 * @param size
+	 *            The size in bytes.
+	 * @return The new allocated {@link INativeHandle}
+	 */
+	public default INativeHandle allocateUninitialized(int size) {
+		return allocate(size);
+	}
+
+	/**
+	 * Compare <code>length</code> bytes of the memory of <code>a</code> and
+	 * <code>b</code> like "memcmp", the bytes are compared unsigned.
+	 * <p>
+	 * The default implementation compares copies of the memory on the Java
+	 * heap.
+	 * Implementations working on the address must fall back to it for
+	 * handles that are not {@link INativeHandle#isNative()}.
+	 * 
+	 * @param a
+	 *            The first memory chunk
+	 * @param b
+	 *            The second memory chunk
+	 * @param length
+	 *            The number of bytes to compare
+	 * @return A negative value, 0 or a positive value if the memory of
+	 *         <code>a</code> is less than, equal to or greater than that of
+	 *         <code>b</code>.
+	 */
+	public default int compare(INativeHandle a, INativeHandle b, int length) {
+		return Arrays.compareUnsigned(a.getByteArray(0, length), b.getByteArray(0, length));
+	}
+
+	/**
+	 * Copy <code>length</code> bytes from <code>source</code> at
+	 * <code>sourceOffset</code> to <code>target</code> at
+	 * <code>targetOffset</code> like "memmove", the memory regions may overlap.
+	 * <p>
+	 * The default implementation copies via the Java heap.
+	 * Implementations working on the address must fall back to it for
+	 * handles that are not {@link INativeHandle#isNative()}.
+	 * 
+	 * @param source
+	 *            The memory to copy from
+	 * @param sourceOffset
+	 *            The byte offset within source
+	 * @param target
+	 *            The memory to copy to
+	 * @param targetOffset
+	 *            The byte offset within target
+	 * @param length
+	 *            The number of bytes to copy
+	 */
+	public default void copy(INativeHandle source, int sourceOffset, INativeHandle target, int targetOffset,
+			int length) {
+		target.setByteArray(targetOffset, source.getByteArray(sourceOffset, length), 0, length);
+	}
+
 	public INativeCallback createCallback(ICallback callback);
 
 	/**
@@ -77,6 +149,23 @@ public interface INativeInterface {
 	 */
 	public INativeHandle createHandle(long address);
 
+	/**
+	 * Create a new {@link INativeHandle} for the memory of the direct
+	 * {@link ByteBuffer} <code>buffer</code>, from its position to its limit. No
+	 * data is copied, the handle keeps the buffer reachable.
+	 * <p>
+	 * The default implementation throws an
+	 * {@link UnsupportedOperationException}, there is no portable way to get
+	 * the address of a buffer.
+	 * 
+	 * @param buffer
+	 *            A direct {@link ByteBuffer}
+	 * @return The handle to the memory of the buffer.
+	 */
+	public default INativeHandle createHandle(ByteBuffer buffer) {
+		throw new UnsupportedOperationException(getClass().getName() + " does not support handles to ByteBuffer memory"); //$NON-NLS-1$
+	}
+
 	/**
 	 * Load a new {@link INativeLibrary}.
 	 * 
@@ -98,6 +187,79 @@ public interface INativeInterface {
 	 */
 	public INativeLibrary createLibrary(String name, Object callingConvention);
 
+	/**
+	 * Set <code>length</code> bytes of <code>handle</code> at
+	 * <code>offset</code> to <code>value</code> like "memset".
+	 * <p>
+	 * The default implementation writes via the Java heap.
+	 * Implementations working on the address must fall back to it for
+	 * handles that are not {@link INativeHandle#isNative()}.
+	 * 
+	 * @param handle
+	 *            The memory to fill
+	 * @param offset
+	 *            The byte offset within handle
+	 * @param length
+	 *            The number of bytes to fill
+	 * @param value
+	 *            The value for each byte
+	 */
+	public default void fill(INativeHandle handle, int offset, int length, byte value) {
+		byte[] bytes = new byte[length];
+		Arrays.fill(bytes, value);
+		handle.setByteArray(offset, bytes, 0, length);
+	}
+
+	/**
+	 * Map <code>size</code> bytes of the file open in <code>channel</code>,
+	 * starting at <code>position</code>, into memory. Any
+	 * {@link de.intarsys.nativec.type.INativeObject} can be created on the
+	 * handle to access the file contents in place.
+	 * <p>
+	 * The region is unmapped when the handle is garbage collected. Writing to a
+	 * region mapped with {@link MapMode#READ_ONLY} is undefined and may crash
+	 * the VM.
+	 * <p>
+	 * A single region is limited to {@link Integer#MAX_VALUE} bytes (2 GB),
+	 * like handle offsets. Larger files must be mapped region by region, for
+	 * example a whole number of records at a time.
+	 * <p>
+	 * The default implementation uses {@link FileChannel#map(MapMode, long, long)}
+	 * and {@link #createHandle(ByteBuffer)}.
+	 * 
+	 * @param channel
+	 *            The channel of the file to map
+	 * @param mode
+	 *            The {@link MapMode}
+	 * @param position
+	 *            The position in the file where the region starts
+	 * @param size
+	 *            The size of the region in bytes, at most
+	 *            {@link Integer#MAX_VALUE}
+	 * @return The handle to the mapped region.
+	 * @throws IOException
+	 */
+	public default INativeHandle map(FileChannel channel, MapMode mode, long position, int size)
+			throws IOException {
+		if (size < 0) {
+			throw new IllegalArgumentException("region size " + size + " is negative, map files larger than 2 GB region by region"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return createHandle(channel.map(mode, position, size));
+	}
+
+	/**
+	 * Open a new {@link INativeArena}. Memory allocated from the arena is
+	 * released when the arena is closed.
+	 * <p>
+	 * The default implementation acquires its memory via
+	 * {@link #allocate(int)}, so it is released only by the garbage collector.
+	 * 
+	 * @return The new {@link INativeArena}
+	 */
+	public default INativeArena openArena() {
+		return new NativeArena(this);
+	}
+
 	/**
 	 * The platform long size.
 	 * 
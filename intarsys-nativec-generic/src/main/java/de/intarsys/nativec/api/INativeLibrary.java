@@ -51,4 +51,21 @@ public interface INativeLibrary {
 	 * @return The {@link INativeHandle} to the global.
 	 */
 	public INativeHandle getGlobal(String symbolName);
+
+	/**
+	 * Lookup all functions in <code>names</code> at once, for example to
+	 * resolve the symbols of a library binding eagerly at startup.
+	 * 
+	 * @param names
+	 *            The function names
+	 * @return The {@link INativeFunction} instances, in the order of
+	 *         <code>names</code>
+	 */
+	public default INativeFunction[] resolve(String... names) {
+		INativeFunction[] functions = new INativeFunction[names.length];
+		for (int i = 0; i < names.length; i++) {
+			functions[i] = getFunction(names[i]);
+		}
+		return functions;
+	}
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link NativeMemoryStatistics}.
+ */
+public interface INativeMemoryMXBean {
+
+	/**
+	 * The number of bytes allocated so far.
+	 *
+	 * @return The number of bytes allocated so far.
+	 */
+	long getAllocatedBytes();
+
+	/**
+	 * The number of allocations so far.
+	 *
+	 * @return The number of allocations so far.
+	 */
+	long getAllocationCount();
+
+	/**
+	 * The bytes allocated per second during the last sampling period of
+	 * {@link NativeMemoryStatistics#RATE_PERIOD} milliseconds. Reading the
+	 * rate does not change it, for other periods derive the rate from
+	 * {@link #getAllocatedBytes()}, which only increases.
+	 *
+	 * @return The bytes allocated per second.
+	 */
+	double getAllocationRate();
+
+	/**
+	 * The number of bytes not yet released.
+	 *
+	 * @return The number of bytes not yet released.
+	 */
+	long getLiveBytes();
+
+	/**
+	 * The number of bytes not yet released, by allocation site. Only sampled
+	 * allocations are included, see {@link #getSamplingInterval()}.
+	 *
+	 * @return The number of bytes not yet released, by allocation site.
+	 */
+	Map<String, Long> getLiveBytesBySite();
+
+	/**
+	 * The number of bytes not yet released, by the class of the
+	 * {@link de.intarsys.nativec.type.INativeObject} they were allocated for.
+	 * Memory allocated directly via the {@link INativeInterface} is not
+	 * included.
+	 *
+	 * @return The number of bytes not yet released, by class name.
+	 */
+	Map<String, Long> getLiveBytesByType();
+
+	/**
+	 * The number of allocations not yet released.
+	 *
+	 * @return The number of allocations not yet released.
+	 */
+	long getLiveCount();
+
+	/**
+	 * The number of bytes released so far.
+	 *
+	 * @return The number of bytes released so far.
+	 */
+	long getReleasedBytes();
+
+	/**
+	 * Every "n"th allocation records its allocation site, 0 disables sampling.
+	 *
+	 * @return The sampling interval
+	 */
+	int getSamplingInterval();
+
+	/**
+	 * The number of allocations by size. Entry 0 counts allocations of at most
+	 * one byte, entry <code>i</code> counts allocations of more than
+	 * 2<sup>i-1</sup> and at most 2<sup>i</sup> bytes.
+	 *
+	 * @return The number of allocations by size.
+	 */
+	long[] getSizeHistogram();
+
+	void setSamplingInterval(int interval);
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.intarsys.nativec.type.INativeObject;
+import de.intarsys.nativec.type.INativeType;
+import de.intarsys.nativec.type.NativeBuffer;
+import de.intarsys.nativec.type.NativeBufferType;
+import de.intarsys.nativec.type.NativeString;
+import de.intarsys.nativec.type.NativeStringType;
+
+/**
+ * A generic {@link INativeArena} implementation.
+ * <p>
+ * Memory is taken from large blocks using a simple bump pointer, so that
+ * allocating from the arena is merely an offset computation. Requests larger
+ * than half a block get a block of their own. Blocks are zeroed once when
+ * they are acquired.
+ * <p>
+ * This implementation acquires blocks via
+ * {@link INativeInterface#allocate(int)} and leaves the release to the
+ * garbage collector. Implementations should override
+ * {@link #allocateBlock(int)} and {@link #freeBlock(INativeHandle)} to
+ * release the memory upon {@link #close()}.
+ */
+public class NativeArena implements INativeArena {
+
+	/**
+	 * The alignment of each allocation.
+	 */
+	public static final int ALIGNMENT = 8;
+
+	public static final int DEFAULT_BLOCK_SIZE = 16384;
+
+	private INativeHandle block;
+
+	private int blockOffset;
+
+	private final List<INativeHandle> blocks = new ArrayList<INativeHandle>();
+
+	private final int blockSize;
+
+	private final INativeInterface nativeInterface;
+
+	private boolean open = true;
+
+	public NativeArena(INativeInterface nativeInterface) {
+		this(nativeInterface, DEFAULT_BLOCK_SIZE);
+	}
+
+	public NativeArena(INativeInterface nativeInterface, int blockSize) {
+		super();
+		this.nativeInterface = nativeInterface;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public INativeHandle allocate(int size) {
+		if (!open) {
+			throw new IllegalStateException("arena is closed");
+		}
+		if (size < 0) {
+			throw new IllegalArgumentException("negative size");
+		}
+		int alignedSize = (size + ALIGNMENT - 1) & -ALIGNMENT;
+		if (alignedSize > blockSize / 2) {
+			INativeHandle dedicated = allocateBlock(alignedSize);
+			blocks.add(dedicated);
+			dedicated.setSize(size);
+			return dedicated;
+		}
+		if (block == null || blockOffset + alignedSize > blockSize) {
+			block = allocateBlock(blockSize);
+			blocks.add(block);
+			blockOffset = 0;
+		}
+		INativeHandle handle = block.offset(blockOffset);
+		handle.setSize(size);
+		blockOffset += alignedSize;
+		return handle;
+	}
+
+	/**
+	 * Acquire a new zero initialized block of c memory.
+	 * 
+	 * @param size
+	 *            The size in bytes
+	 * @return The handle to the new block
+	 */
+	protected INativeHandle allocateBlock(int size) {
+		return nativeInterface.allocate(size);
+	}
+
+	@Override
+	public void close() {
+		if (!open) {
+			return;
+		}
+		open = false;
+		block = null;
+		for (INativeHandle current : blocks) {
+			freeBlock(current);
+		}
+		blocks.clear();
+	}
+
+	@Override
+	public INativeObject create(INativeType type) {
+		return type.createNative(allocate(type.getByteCount()));
+	}
+
+	@Override
+	public NativeBuffer createBuffer(byte[] bytes) {
+		INativeHandle handle = allocate(bytes.length);
+		NativeBuffer buffer = (NativeBuffer) NativeBufferType.create(bytes.length).createNative(handle);
+		buffer.setByteArray(0, bytes, 0, bytes.length);
+		return buffer;
+	}
+
+	@Override
+	public NativeString createString(String value) {
+		// encode once, the memory is sized for exactly these bytes
+		byte[] bytes = value.getBytes(Charset.defaultCharset());
+		INativeHandle handle = allocate(bytes.length + 1);
+		handle.setByteArray(0, bytes, 0, bytes.length);
+		handle.setByte(bytes.length, (byte) 0);
+		return NativeStringType.create(bytes.length + 1).createNative(handle);
+	}
+
+	/**
+	 * Release a block acquired via {@link #allocateBlock(int)}.
+	 * 
+	 * @param handle
+	 *            The handle to the block
+	 */
+	protected void freeBlock(INativeHandle handle) {
+		// left to the garbage collector
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	protected INativeInterface getNativeInterface() {
+		return nativeInterface;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+}
@@ -0,0 +1,542 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.intarsys.nativec.api.NativeKind.Kind;
+
+/**
+ * Bind a Java interface to the functions of an {@link INativeLibrary}.
+ * <p>
+ * Each abstract method of the interface is implemented by the native function
+ * named by its {@link NativeSymbol} annotation (or the method name). The
+ * mapping of parameters and return value follows from the Java types, a
+ * {@link NativeKind} annotation declares the native representation where the
+ * Java type is ambiguous.
+ *
+ * <pre>
+ * public interface LibC {
+ * 	&#64;NativeSymbol(&quot;strlen&quot;)
+ * 	int length(String value);
+ *
+ * 	&#64;NativeKind(Kind.CLONG)
+ * 	long labs(&#64;NativeKind(Kind.CLONG) long value);
+ * }
+ *
+ * LibC libc = NativeBinding.bind(LibC.class, nativeInterface.createLibrary(&quot;c&quot;));
+ * </pre>
+ * <p>
+ * The implementation is a class generated at runtime (a hidden class where
+ * available), not a {@link java.lang.reflect.Proxy}. Each method holds the
+ * {@link INativeCallSite} for its signature in a final field and calls it
+ * directly, so there is no lookup or reflective dispatch per call. Methods
+ * with only primitive parameters and an int, long, c long, address or double
+ * result call the typed entry point of the {@link INativeFunction}, such as
+ * {@link INativeFunction#invokeInt(Object...)}, instead and return the result
+ * without a wrapper.
+ * <p>
+ * The public static conversion methods are used by the generated code and
+ * are not meant to be called by clients.
+ *
+ */
+public final class NativeBinding {
+
+	private static final String CALLSITE = NativeBindingWriter.internalName(INativeCallSite.class);
+
+	private static final String FUNCTION = NativeBindingWriter.internalName(INativeFunction.class);
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	/**
+	 * <code>Lookup.defineHiddenClass</code>, <code>null</code> before Java 15.
+	 */
+	private static final Method DEFINE_HIDDEN;
+
+	private static final Object HIDDEN_OPTIONS;
+
+	private static final String SELF = NativeBindingWriter.internalName(NativeBinding.class);
+
+	static {
+		Method defineHidden = null;
+		Object options = null;
+		try {
+			Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption"); //$NON-NLS-1$
+			options = Array.newInstance(optionClass, 0);
+			defineHidden = Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, //$NON-NLS-1$
+					options.getClass());
+		} catch (Exception e) {
+			// not available, use Lookup.defineClass
+		}
+		DEFINE_HIDDEN = defineHidden;
+		HIDDEN_OPTIONS = options;
+	}
+
+	public static long address(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((INativeHandle) value).getAddress();
+	}
+
+	/**
+	 * Create an implementation of <code>type</code> where each method calls the
+	 * respective function in <code>library</code>.
+	 * <p>
+	 * All functions are resolved eagerly, a missing symbol fails here and not
+	 * upon the first call.
+	 *
+	 * @param type
+	 *            The interface to implement
+	 * @param library
+	 *            The library providing the functions
+	 * @return The implementation of <code>type</code>
+	 */
+	public static <T> T bind(Class<T> type, INativeLibrary library) {
+		if (!type.isInterface()) {
+			throw new IllegalArgumentException("'" + type.getName() + "' is not an interface");
+		}
+		List<Method> methods = getMethods(type);
+		INativeCallSite<?>[] callSites = new INativeCallSite<?>[methods.size()];
+		for (int i = 0; i < callSites.length; i++) {
+			callSites[i] = createCallSite(methods.get(i), library);
+		}
+		String className = NativeBindingWriter.internalName(type) + "$NativeBinding" + COUNTER.incrementAndGet(); //$NON-NLS-1$
+		byte[] bytes = generate(className, type, methods);
+		try {
+			Class<?> clazz = define(type, bytes);
+			return type.cast(clazz.getConstructor(INativeCallSite[].class).newInstance((Object) callSites));
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("can't implement '" + type.getName() + "'", e);
+		}
+	}
+
+	public static boolean booleanValue(Object value) {
+		if (value == null) {
+			return false;
+		}
+		return ((Boolean) value).booleanValue();
+	}
+
+	public static byte byteValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((Number) value).byteValue();
+	}
+
+	public static char charValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((Character) value).charValue();
+	}
+
+	private static INativeCallSite<?> createCallSite(Method method, INativeLibrary library) {
+		NativeSymbol symbol = method.getAnnotation(NativeSymbol.class);
+		String name = method.getName();
+		if (symbol != null && symbol.value().length() > 0) {
+			name = symbol.value();
+		}
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+		Class<?>[] nativeParameterTypes = new Class<?>[parameterTypes.length];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			nativeParameterTypes[i] = nativeType(parameterTypes[i], getKind(parameterAnnotations[i]), method);
+		}
+		Class<?> nativeReturnType;
+		if (method.getReturnType() == void.class) {
+			nativeReturnType = Void.class;
+		} else {
+			nativeReturnType = nativeType(method.getReturnType(), getKind(method.getAnnotations()), method);
+		}
+		return library.getFunction(name).bind(nativeReturnType, nativeParameterTypes);
+	}
+
+	private static Class<?> define(Class<?> type, byte[] bytes) throws ReflectiveOperationException {
+		Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+		if (DEFINE_HIDDEN != null) {
+			try {
+				Lookup hidden = (Lookup) DEFINE_HIDDEN.invoke(lookup, bytes, true, HIDDEN_OPTIONS);
+				return hidden.lookupClass();
+			} catch (InvocationTargetException e) {
+				if (!(e.getCause() instanceof IllegalAccessException)) {
+					throw e;
+				}
+				// not a full privilege lookup (e.g. different modules) - try
+				// on
+			}
+		}
+		return lookup.defineClass(bytes);
+	}
+
+	public static double doubleValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((Number) value).doubleValue();
+	}
+
+	public static float floatValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((Number) value).floatValue();
+	}
+
+	private static byte[] generate(String className, Class<?> type, List<Method> methods) {
+		NativeBindingWriter writer = new NativeBindingWriter();
+		String callSiteDescriptor = "L" + CALLSITE + ";"; //$NON-NLS-1$ //$NON-NLS-2$
+		String functionDescriptor = "L" + FUNCTION + ";"; //$NON-NLS-1$ //$NON-NLS-2$
+		String[] typedEntries = new String[methods.size()];
+		for (int i = 0; i < methods.size(); i++) {
+			typedEntries[i] = getTypedEntry(methods.get(i));
+			if (typedEntries[i] == null) {
+				writer.field(NativeBindingWriter.ACC_PRIVATE | NativeBindingWriter.ACC_FINAL, "site" + i, //$NON-NLS-1$
+						callSiteDescriptor);
+			} else {
+				writer.field(NativeBindingWriter.ACC_PRIVATE | NativeBindingWriter.ACC_FINAL, "function" + i, //$NON-NLS-1$
+						functionDescriptor);
+			}
+		}
+		// constructor
+		writer.beginMethod(NativeBindingWriter.ACC_PUBLIC, "<init>", //$NON-NLS-1$
+				NativeBindingWriter.descriptor(void.class, INativeCallSite[].class), 3, 2);
+		writer.insn(NativeBindingWriter.ALOAD_0);
+		writer.insnConstant(NativeBindingWriter.INVOKESPECIAL,
+				writer.methodConstant("java/lang/Object", "<init>", "()V")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		int getFunction = writer.interfaceMethodConstant(CALLSITE, "getFunction", //$NON-NLS-1$
+				NativeBindingWriter.descriptor(INativeFunction.class, new Class<?>[0]));
+		for (int i = 0; i < methods.size(); i++) {
+			writer.insn(NativeBindingWriter.ALOAD_0);
+			writer.insn(NativeBindingWriter.ALOAD_1);
+			writer.insnPush(i);
+			writer.insn(NativeBindingWriter.AALOAD);
+			if (typedEntries[i] == null) {
+				writer.insnConstant(NativeBindingWriter.PUTFIELD,
+						writer.fieldConstant(className, "site" + i, callSiteDescriptor)); //$NON-NLS-1$
+			} else {
+				writer.insnInterface(getFunction, 1);
+				writer.insnConstant(NativeBindingWriter.PUTFIELD,
+						writer.fieldConstant(className, "function" + i, functionDescriptor)); //$NON-NLS-1$
+			}
+		}
+		writer.insn(NativeBindingWriter.RETURN);
+		writer.endMethod();
+		// methods
+		int invoke = writer.interfaceMethodConstant(CALLSITE, "invoke", //$NON-NLS-1$
+				NativeBindingWriter.descriptor(Object.class, Object[].class));
+		for (int i = 0; i < methods.size(); i++) {
+			Method method = methods.get(i);
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			Class<?> returnType = method.getReturnType();
+			int locals = 1;
+			for (Class<?> parameterType : parameterTypes) {
+				locals += NativeBindingWriter.slots(parameterType);
+			}
+			writer.beginMethod(NativeBindingWriter.ACC_PUBLIC, method.getName(),
+					NativeBindingWriter.descriptor(returnType, parameterTypes), 6, locals);
+			writer.insn(NativeBindingWriter.ALOAD_0);
+			if (typedEntries[i] != null) {
+				writer.insnConstant(NativeBindingWriter.GETFIELD,
+						writer.fieldConstant(className, "function" + i, functionDescriptor)); //$NON-NLS-1$
+				generateArguments(writer, method);
+				Class<?> entryType = typedEntries[i].equals("invokeDouble") ? double.class : //$NON-NLS-1$
+						typedEntries[i].equals("invokeInt") ? int.class : long.class; //$NON-NLS-1$
+				writer.insnInterface(writer.interfaceMethodConstant(FUNCTION, typedEntries[i],
+						NativeBindingWriter.descriptor(entryType, Object[].class)), 2);
+				if (entryType == long.class && returnType == int.class) {
+					writer.insn(NativeBindingWriter.L2I);
+				}
+				writer.insnReturn(returnType);
+				writer.endMethod();
+				continue;
+			}
+			writer.insnConstant(NativeBindingWriter.GETFIELD,
+					writer.fieldConstant(className, "site" + i, callSiteDescriptor)); //$NON-NLS-1$
+			generateArguments(writer, method);
+			writer.insnInterface(invoke, 2);
+			Kind kind = getKind(method.getAnnotations());
+			if (returnType == void.class) {
+				writer.insn(NativeBindingWriter.POP);
+			} else if (kind == Kind.ADDRESS) {
+				writer.insnConstant(NativeBindingWriter.INVOKESTATIC, writer.methodConstant(SELF, "address", //$NON-NLS-1$
+						NativeBindingWriter.descriptor(long.class, Object.class)));
+			} else if (kind == Kind.WIDESTRING) {
+				writer.insnConstant(NativeBindingWriter.INVOKESTATIC, writer.methodConstant(SELF, "stringValue", //$NON-NLS-1$
+						NativeBindingWriter.descriptor(String.class, Object.class)));
+			} else if (returnType.isPrimitive()) {
+				// CLONG is just a number, too
+				writer.insnConstant(NativeBindingWriter.INVOKESTATIC,
+						writer.methodConstant(SELF, returnType.getName() + "Value", //$NON-NLS-1$
+								NativeBindingWriter.descriptor(returnType, Object.class)));
+			} else if (returnType != Object.class) {
+				writer.insnConstant(NativeBindingWriter.CHECKCAST,
+						writer.classConstant(NativeBindingWriter.internalName(returnType)));
+			}
+			writer.insnReturn(returnType);
+			writer.endMethod();
+		}
+		return writer.toByteArray(
+				NativeBindingWriter.ACC_PUBLIC | NativeBindingWriter.ACC_FINAL | NativeBindingWriter.ACC_SUPER
+						| NativeBindingWriter.ACC_SYNTHETIC,
+				className, "java/lang/Object", NativeBindingWriter.internalName(type)); //$NON-NLS-1$
+	}
+
+	/**
+	 * Push the argument array for a call of <code>method</code>, converting
+	 * each parameter to the type declared for the native function.
+	 */
+	private static void generateArguments(NativeBindingWriter writer, Method method) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+		writer.insnPush(parameterTypes.length);
+		writer.insnConstant(NativeBindingWriter.ANEWARRAY, writer.classConstant("java/lang/Object")); //$NON-NLS-1$
+		int slot = 1;
+		for (int j = 0; j < parameterTypes.length; j++) {
+			Class<?> parameterType = parameterTypes[j];
+			writer.insn(NativeBindingWriter.DUP);
+			writer.insnPush(j);
+			writer.insnLoad(parameterType, slot);
+			slot += NativeBindingWriter.slots(parameterType);
+			Kind kind = getKind(parameterAnnotations[j]);
+			if (kind == Kind.ADDRESS) {
+				writer.insnConstant(NativeBindingWriter.INVOKESTATIC, writer.methodConstant(SELF, "toHandle", //$NON-NLS-1$
+						NativeBindingWriter.descriptor(INativeHandle.class, long.class)));
+			} else if (kind == Kind.CLONG) {
+				if (parameterType == int.class) {
+					writer.insn(NativeBindingWriter.I2L);
+				}
+				writer.insnConstant(NativeBindingWriter.INVOKESTATIC, writer.methodConstant(SELF, "toCLong", //$NON-NLS-1$
+						NativeBindingWriter.descriptor(CLong.class, long.class)));
+			} else if (kind == Kind.WIDESTRING) {
+				writer.insnConstant(NativeBindingWriter.INVOKESTATIC, writer.methodConstant(SELF, "toWideString", //$NON-NLS-1$
+						NativeBindingWriter.descriptor(CWideString.class, String.class)));
+			} else if (parameterType.isPrimitive()) {
+				Class<?> wrapper = wrapperType(parameterType);
+				writer.insnConstant(NativeBindingWriter.INVOKESTATIC,
+						writer.methodConstant(NativeBindingWriter.internalName(wrapper), "valueOf", //$NON-NLS-1$
+								NativeBindingWriter.descriptor(wrapper, parameterType)));
+			}
+			writer.insn(NativeBindingWriter.AASTORE);
+		}
+	}
+
+	private static Kind getKind(Annotation[] annotations) {
+		for (Annotation annotation : annotations) {
+			if (annotation instanceof NativeKind) {
+				return ((NativeKind) annotation).value();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The abstract methods of <code>type</code>, including the inherited ones.
+	 *
+	 * @param type
+	 *            The interface
+	 * @return The methods to implement
+	 */
+	private static List<Method> getMethods(Class<?> type) {
+		List<Method> methods = new ArrayList<Method>();
+		Set<String> signatures = new HashSet<String>();
+		for (Method method : type.getMethods()) {
+			if (!Modifier.isAbstract(method.getModifiers())) {
+				continue;
+			}
+			try {
+				// redeclared method of Object, implemented anyway
+				Object.class.getMethod(method.getName(), method.getParameterTypes());
+				continue;
+			} catch (NoSuchMethodException e) {
+				// a native method
+			}
+			String signature = method.getName()
+					+ NativeBindingWriter.descriptor(method.getReturnType(), method.getParameterTypes());
+			if (signatures.add(signature)) {
+				methods.add(method);
+			}
+		}
+		return methods;
+	}
+
+	/**
+	 * The typed entry point of {@link INativeFunction} for a call of
+	 * <code>method</code>, if it needs no object marshalling: all parameters
+	 * are numbers and the result is an int, long, c long, address or double.
+	 *
+	 * @param method
+	 *            The method to implement
+	 * @return The name of the entry point or <code>null</code> to use the
+	 *         {@link INativeCallSite}.
+	 */
+	private static String getTypedEntry(Method method) {
+		Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			Class<?> parameterType = parameterTypes[i];
+			Kind kind = getKind(parameterAnnotations[i]);
+			if (kind == Kind.WIDESTRING || !parameterType.isPrimitive() || parameterType == boolean.class
+					|| parameterType == char.class) {
+				return null;
+			}
+		}
+		Class<?> returnType = method.getReturnType();
+		Kind kind = getKind(method.getAnnotations());
+		if (kind == Kind.CLONG) {
+			return "invokeCLong"; //$NON-NLS-1$
+		} else if (kind == Kind.ADDRESS) {
+			return "invokeAddress"; //$NON-NLS-1$
+		} else if (kind != null) {
+			return null;
+		} else if (returnType == int.class) {
+			return "invokeInt"; //$NON-NLS-1$
+		} else if (returnType == long.class) {
+			return "invokeLong"; //$NON-NLS-1$
+		} else if (returnType == double.class) {
+			return "invokeDouble"; //$NON-NLS-1$
+		}
+		return null;
+	}
+
+	public static int intValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((Number) value).intValue();
+	}
+
+	public static long longValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((Number) value).longValue();
+	}
+
+	/**
+	 * The type passed to {@link INativeFunction#bind(Class, Class...)} for a
+	 * Java <code>type</code> with native representation <code>kind</code>.
+	 */
+	private static Class<?> nativeType(Class<?> type, Kind kind, Method method) {
+		if (kind == null) {
+			return type;
+		}
+		switch (kind) {
+		case ADDRESS:
+			if (type == long.class) {
+				return INativeHandle.class;
+			}
+			break;
+		case CLONG:
+			if (type == long.class || type == int.class) {
+				return CLong.class;
+			}
+			break;
+		case WIDESTRING:
+			if (type == String.class) {
+				return CWideString.class;
+			}
+			break;
+		default:
+			break;
+		}
+		throw new IllegalArgumentException(
+				"kind " + kind + " not applicable to '" + type.getName() + "' in '" + method + "'");
+	}
+
+	public static short shortValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		return ((Number) value).shortValue();
+	}
+
+	public static String stringValue(Object value) {
+		if (value == null) {
+			return null;
+		}
+		return ((CWideString) value).getString();
+	}
+
+	public static CLong toCLong(long value) {
+		return new CLong(value);
+	}
+
+	public static INativeHandle toHandle(long address) {
+		if (address == 0) {
+			return null;
+		}
+		return NativeInterface.get().createHandle(address);
+	}
+
+	public static CWideString toWideString(String value) {
+		if (value == null) {
+			return null;
+		}
+		return new CWideString(value);
+	}
+
+	private static Class<?> wrapperType(Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.class;
+		} else if (type == byte.class) {
+			return Byte.class;
+		} else if (type == char.class) {
+			return Character.class;
+		} else if (type == short.class) {
+			return Short.class;
+		} else if (type == int.class) {
+			return Integer.class;
+		} else if (type == long.class) {
+			return Long.class;
+		} else if (type == float.class) {
+			return Float.class;
+		}
+		return Double.class;
+	}
+
+	private NativeBinding() {
+		super();
+	}
+}
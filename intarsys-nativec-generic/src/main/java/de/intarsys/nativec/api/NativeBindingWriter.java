@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A minimal class file writer for the implementations created by
+ * {@link NativeBinding}.
+ * <p>
+ * The generated code is straight line code only (no branches), so we can
+ * write class file version 52 without a "StackMapTable" attribute.
+ *
+ */
+class NativeBindingWriter {
+
+	/**
+	 * A growable byte buffer with the class file primitives.
+	 */
+	static class Bytes extends ByteArrayOutputStream {
+
+		protected void u1(int value) {
+			write(value);
+		}
+
+		protected void u2(int value) {
+			write(value >>> 8);
+			write(value);
+		}
+
+		protected void u4(int value) {
+			u2(value >>> 16);
+			u2(value);
+		}
+
+		protected void utf(String value) {
+			try {
+				// modified UTF-8, as required by the class file format
+				new DataOutputStream(this).writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	public static final int ACC_PUBLIC = 0x0001;
+
+	public static final int ACC_PRIVATE = 0x0002;
+
+	public static final int ACC_FINAL = 0x0010;
+
+	public static final int ACC_SUPER = 0x0020;
+
+	public static final int ACC_SYNTHETIC = 0x1000;
+
+	public static final int AALOAD = 0x32;
+
+	public static final int AASTORE = 0x53;
+
+	public static final int ALOAD = 0x19;
+
+	public static final int ALOAD_0 = 0x2a;
+
+	public static final int ALOAD_1 = 0x2b;
+
+	public static final int ANEWARRAY = 0xbd;
+
+	public static final int ARETURN = 0xb0;
+
+	public static final int BIPUSH = 0x10;
+
+	public static final int CHECKCAST = 0xc0;
+
+	public static final int DLOAD = 0x18;
+
+	public static final int DRETURN = 0xaf;
+
+	public static final int DUP = 0x59;
+
+	public static final int FLOAD = 0x17;
+
+	public static final int FRETURN = 0xae;
+
+	public static final int GETFIELD = 0xb4;
+
+	public static final int I2L = 0x85;
+
+	public static final int ICONST_0 = 0x03;
+
+	public static final int ILOAD = 0x15;
+
+	public static final int INVOKEINTERFACE = 0xb9;
+
+	public static final int INVOKESPECIAL = 0xb7;
+
+	public static final int INVOKESTATIC = 0xb8;
+
+	public static final int IRETURN = 0xac;
+
+	public static final int L2I = 0x88;
+
+	public static final int LLOAD = 0x16;
+
+	public static final int LRETURN = 0xad;
+
+	public static final int POP = 0x57;
+
+	public static final int PUTFIELD = 0xb5;
+
+	public static final int RETURN = 0xb1;
+
+	public static final int SIPUSH = 0x11;
+
+	private static final int CONSTANT_Class = 7;
+
+	private static final int CONSTANT_Fieldref = 9;
+
+	private static final int CONSTANT_InterfaceMethodref = 11;
+
+	private static final int CONSTANT_Methodref = 10;
+
+	private static final int CONSTANT_NameAndType = 12;
+
+	private static final int CONSTANT_Utf8 = 1;
+
+	/**
+	 * The JVM descriptor for <code>type</code>.
+	 *
+	 * @param type
+	 *            The Java type
+	 * @return The descriptor
+	 */
+	public static String descriptor(Class<?> type) {
+		if (type == void.class) {
+			return "V"; //$NON-NLS-1$
+		} else if (type == boolean.class) {
+			return "Z"; //$NON-NLS-1$
+		} else if (type == byte.class) {
+			return "B"; //$NON-NLS-1$
+		} else if (type == char.class) {
+			return "C"; //$NON-NLS-1$
+		} else if (type == short.class) {
+			return "S"; //$NON-NLS-1$
+		} else if (type == int.class) {
+			return "I"; //$NON-NLS-1$
+		} else if (type == long.class) {
+			return "J"; //$NON-NLS-1$
+		} else if (type == float.class) {
+			return "F"; //$NON-NLS-1$
+		} else if (type == double.class) {
+			return "D"; //$NON-NLS-1$
+		} else if (type.isArray()) {
+			return internalName(type);
+		}
+		return "L" + internalName(type) + ";"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * The JVM method descriptor for the signature.
+	 *
+	 * @param returnType
+	 *            The return type
+	 * @param parameterTypes
+	 *            The parameter types
+	 * @return The descriptor
+	 */
+	public static String descriptor(Class<?> returnType, Class<?>... parameterTypes) {
+		StringBuilder sb = new StringBuilder();
+		sb.append('(');
+		for (Class<?> parameterType : parameterTypes) {
+			sb.append(descriptor(parameterType));
+		}
+		sb.append(')');
+		sb.append(descriptor(returnType));
+		return sb.toString();
+	}
+
+	/**
+	 * The JVM internal name for <code>type</code>, as used in
+	 * <code>CONSTANT_Class</code> entries.
+	 *
+	 * @param type
+	 *            The Java type
+	 * @return The internal name
+	 */
+	public static String internalName(Class<?> type) {
+		return type.getName().replace('.', '/');
+	}
+
+	/**
+	 * The number of local variable slots for a value of <code>type</code>.
+	 *
+	 * @param type
+	 *            The Java type
+	 * @return The slot count
+	 */
+	public static int slots(Class<?> type) {
+		return (type == long.class || type == double.class) ? 2 : 1;
+	}
+
+	private final Map<String, Integer> constants = new HashMap<String, Integer>();
+
+	private int constantCount = 1;
+
+	private final Bytes constantPool = new Bytes();
+
+	private final Bytes fields = new Bytes();
+
+	private int fieldCount;
+
+	private final Bytes methods = new Bytes();
+
+	private int methodCount;
+
+	private Bytes code;
+
+	private int maxLocals;
+
+	private int maxStack;
+
+	private int methodAccess;
+
+	private int methodDescriptor;
+
+	private int methodName;
+
+	public NativeBindingWriter() {
+		super();
+	}
+
+	public void beginMethod(int access, String name, String descriptor, int pMaxStack, int pMaxLocals) {
+		methodAccess = access;
+		methodName = utf8(name);
+		methodDescriptor = utf8(descriptor);
+		maxStack = pMaxStack;
+		maxLocals = pMaxLocals;
+		code = new Bytes();
+	}
+
+	public int classConstant(String internalName) {
+		Integer index = constants.get("C" + internalName); //$NON-NLS-1$
+		if (index == null) {
+			int name = utf8(internalName);
+			constantPool.u1(CONSTANT_Class);
+			constantPool.u2(name);
+			index = newConstant("C" + internalName); //$NON-NLS-1$
+		}
+		return index;
+	}
+
+	public void endMethod() {
+		methods.u2(methodAccess);
+		methods.u2(methodName);
+		methods.u2(methodDescriptor);
+		// attributes
+		methods.u2(1);
+		methods.u2(utf8("Code")); //$NON-NLS-1$
+		methods.u4(12 + code.size());
+		methods.u2(maxStack);
+		methods.u2(maxLocals);
+		methods.u4(code.size());
+		methods.write(code.toByteArray(), 0, code.size());
+		// exception table
+		methods.u2(0);
+		// code attributes
+		methods.u2(0);
+		methodCount++;
+		code = null;
+	}
+
+	public int fieldConstant(String owner, String name, String descriptor) {
+		return memberConstant(CONSTANT_Fieldref, owner, name, descriptor);
+	}
+
+	public void field(int access, String name, String descriptor) {
+		fields.u2(access);
+		fields.u2(utf8(name));
+		fields.u2(utf8(descriptor));
+		fields.u2(0);
+		fieldCount++;
+	}
+
+	public void insn(int opcode) {
+		code.u1(opcode);
+	}
+
+	public void insnConstant(int opcode, int index) {
+		code.u1(opcode);
+		code.u2(index);
+	}
+
+	public void insnInterface(int index, int argumentSlots) {
+		code.u1(INVOKEINTERFACE);
+		code.u2(index);
+		code.u1(argumentSlots);
+		code.u1(0);
+	}
+
+	public void insnLoad(Class<?> type, int slot) {
+		int opcode;
+		if (type == long.class) {
+			opcode = LLOAD;
+		} else if (type == float.class) {
+			opcode = FLOAD;
+		} else if (type == double.class) {
+			opcode = DLOAD;
+		} else if (type.isPrimitive()) {
+			opcode = ILOAD;
+		} else {
+			opcode = ALOAD;
+		}
+		code.u1(opcode);
+		code.u1(slot);
+	}
+
+	public void insnPush(int value) {
+		if (value >= 0 && value <= 5) {
+			code.u1(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			code.u1(BIPUSH);
+			code.u1(value);
+		} else {
+			code.u1(SIPUSH);
+			code.u2(value);
+		}
+	}
+
+	public void insnReturn(Class<?> type) {
+		int opcode;
+		if (type == void.class) {
+			opcode = RETURN;
+		} else if (type == long.class) {
+			opcode = LRETURN;
+		} else if (type == float.class) {
+			opcode = FRETURN;
+		} else if (type == double.class) {
+			opcode = DRETURN;
+		} else if (type.isPrimitive()) {
+			opcode = IRETURN;
+		} else {
+			opcode = ARETURN;
+		}
+		code.u1(opcode);
+	}
+
+	public int interfaceMethodConstant(String owner, String name, String descriptor) {
+		return memberConstant(CONSTANT_InterfaceMethodref, owner, name, descriptor);
+	}
+
+	protected int memberConstant(int tag, String owner, String name, String descriptor) {
+		String key = tag + owner + " " + name + " " + descriptor; //$NON-NLS-1$ //$NON-NLS-2$
+		Integer index = constants.get(key);
+		if (index == null) {
+			int ownerIndex = classConstant(owner);
+			int nameAndType = nameAndTypeConstant(name, descriptor);
+			constantPool.u1(tag);
+			constantPool.u2(ownerIndex);
+			constantPool.u2(nameAndType);
+			index = newConstant(key);
+		}
+		return index;
+	}
+
+	public int methodConstant(String owner, String name, String descriptor) {
+		return memberConstant(CONSTANT_Methodref, owner, name, descriptor);
+	}
+
+	protected int nameAndTypeConstant(String name, String descriptor) {
+		String key = "N" + name + " " + descriptor; //$NON-NLS-1$ //$NON-NLS-2$
+		Integer index = constants.get(key);
+		if (index == null) {
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			constantPool.u1(CONSTANT_NameAndType);
+			constantPool.u2(nameIndex);
+			constantPool.u2(descriptorIndex);
+			index = newConstant(key);
+		}
+		return index;
+	}
+
+	protected int newConstant(String key) {
+		int index = constantCount++;
+		constants.put(key, index);
+		return index;
+	}
+
+	/**
+	 * The complete class file.
+	 *
+	 * @param access
+	 *            The class access flags
+	 * @param thisClass
+	 *            The internal name of the class
+	 * @param superClass
+	 *            The internal name of the super class
+	 * @param interfaces
+	 *            The internal names of the implemented interfaces
+	 * @return The class file bytes
+	 */
+	public byte[] toByteArray(int access, String thisClass, String superClass, String... interfaces) {
+		int thisIndex = classConstant(thisClass);
+		int superIndex = classConstant(superClass);
+		int[] interfaceIndices = new int[interfaces.length];
+		for (int i = 0; i < interfaces.length; i++) {
+			interfaceIndices[i] = classConstant(interfaces[i]);
+		}
+		Bytes bytes = new Bytes();
+		bytes.u4(0xCAFEBABE);
+		bytes.u2(0);
+		bytes.u2(52);
+		bytes.u2(constantCount);
+		bytes.write(constantPool.toByteArray(), 0, constantPool.size());
+		bytes.u2(access);
+		bytes.u2(thisIndex);
+		bytes.u2(superIndex);
+		bytes.u2(interfaceIndices.length);
+		for (int interfaceIndex : interfaceIndices) {
+			bytes.u2(interfaceIndex);
+		}
+		bytes.u2(fieldCount);
+		bytes.write(fields.toByteArray(), 0, fields.size());
+		bytes.u2(methodCount);
+		bytes.write(methods.toByteArray(), 0, methods.size());
+		// class attributes
+		bytes.u2(0);
+		return bytes.toByteArray();
+	}
+
+	public int utf8(String value) {
+		Integer index = constants.get("U" + value); //$NON-NLS-1$
+		if (index == null) {
+			constantPool.u1(CONSTANT_Utf8);
+			constantPool.utf(value);
+			index = newConstant("U" + value); //$NON-NLS-1$
+		}
+		return index;
+	}
+}
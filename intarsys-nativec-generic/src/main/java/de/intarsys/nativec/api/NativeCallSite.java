@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+/**
+ * A generic {@link INativeCallSite} implementation, simply delegating to
+ * {@link INativeFunction#invoke(Class, Object...)}.
+ * 
+ * @param <T> The return type
+ */
+public class NativeCallSite<T> implements INativeCallSite<T> {
+
+	private final INativeFunction function;
+
+	private final Class<?>[] parameterTypes;
+
+	private final Class<T> returnType;
+
+	public NativeCallSite(INativeFunction function, Class<T> returnType, Class<?>... parameterTypes) {
+		super();
+		this.function = function;
+		this.returnType = returnType;
+		this.parameterTypes = parameterTypes.clone();
+	}
+
+	protected void checkArguments(Object[] objects) {
+		if (objects.length != parameterTypes.length) {
+			throw new IllegalArgumentException(
+					"expected " + parameterTypes.length + " arguments, got " + objects.length);
+		}
+	}
+
+	@Override
+	public INativeFunction getFunction() {
+		return function;
+	}
+
+	@Override
+	public Class<?>[] getParameterTypes() {
+		return parameterTypes.clone();
+	}
+
+	@Override
+	public Class<T> getReturnType() {
+		return returnType;
+	}
+
+	@Override
+	public T invoke(Object... objects) {
+		checkArguments(objects);
+		return function.invoke(returnType, objects.clone());
+	}
+
+	@Override
+	public String toString() {
+		return function.toString();
+	}
+}
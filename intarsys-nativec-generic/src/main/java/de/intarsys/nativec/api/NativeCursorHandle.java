@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link INativeHandle} that can be moved over the memory of another
+ * handle, the "base".
+ * <p>
+ * An {@link de.intarsys.nativec.type.INativeObject} created on a cursor handle
+ * is a flyweight, it represents the object at the current position of the
+ * cursor. This allows to visit all elements of a large array with a single
+ * wrapper, see {@link de.intarsys.nativec.type.NativeArray#cursor()}. Handles
+ * derived via {@link #offset(int)}, for example those of struct members, move
+ * along with the cursor.
+ */
+public class NativeCursorHandle implements INativeHandle {
+
+	private final INativeHandle base;
+
+	/**
+	 * The cursor this is derived from or <code>null</code>.
+	 */
+	private final NativeCursorHandle parent;
+
+	/**
+	 * The byte offset within the base or, if derived, within the parent.
+	 */
+	private int position;
+
+	private int size;
+
+	public NativeCursorHandle(INativeHandle base, int size) {
+		this.base = base;
+		this.parent = null;
+		this.size = size;
+	}
+
+	protected NativeCursorHandle(NativeCursorHandle parent, int offset) {
+		this.base = parent.base;
+		this.parent = parent;
+		this.position = offset;
+		this.size = parent.size - offset;
+	}
+
+	@Override
+	public ByteBuffer asByteBuffer(int offset, int length) {
+		return base.asByteBuffer(getPosition() + offset, length);
+	}
+
+	@Override
+	public long getAddress() {
+		return base.getAddress() + getPosition();
+	}
+
+	/**
+	 * The handle to the memory the cursor moves over.
+	 * 
+	 * @return The handle to the memory the cursor moves over.
+	 */
+	public INativeHandle getBase() {
+		return base;
+	}
+
+	@Override
+	public byte getByte(int index) {
+		return base.getByte(getPosition() + index);
+	}
+
+	@Override
+	public byte[] getByteArray(int index, int count) {
+		return base.getByteArray(getPosition() + index, count);
+	}
+
+	@Override
+	public long getCLong(int index) {
+		return base.getCLong(getPosition() + index);
+	}
+
+	@Override
+	public long[] getCLongArray(int index, int count) {
+		return base.getCLongArray(getPosition() + index, count);
+	}
+
+	@Override
+	public double getDouble(int index) {
+		return base.getDouble(getPosition() + index);
+	}
+
+	@Override
+	public double[] getDoubleArray(int index, int count) {
+		return base.getDoubleArray(getPosition() + index, count);
+	}
+
+	@Override
+	public float getFloat(int index) {
+		return base.getFloat(getPosition() + index);
+	}
+
+	@Override
+	public float[] getFloatArray(int index, int count) {
+		return base.getFloatArray(getPosition() + index, count);
+	}
+
+	@Override
+	public int getInt(int index) {
+		return base.getInt(getPosition() + index);
+	}
+
+	@Override
+	public int[] getIntArray(int index, int count) {
+		return base.getIntArray(getPosition() + index, count);
+	}
+
+	@Override
+	public long getLong(int index) {
+		return base.getLong(getPosition() + index);
+	}
+
+	@Override
+	public long[] getLongArray(int index, int count) {
+		return base.getLongArray(getPosition() + index, count);
+	}
+
+	@Override
+	public INativeHandle getNativeHandle(int index) {
+		return base.getNativeHandle(getPosition() + index);
+	}
+
+	/**
+	 * The current byte offset of this within {@link #getBase()}.
+	 * 
+	 * @return The current byte offset of this within {@link #getBase()}.
+	 */
+	public int getPosition() {
+		if (parent == null) {
+			return position;
+		}
+		return parent.getPosition() + position;
+	}
+
+	@Override
+	public short getShort(int index) {
+		return base.getShort(getPosition() + index);
+	}
+
+	@Override
+	public short[] getShortArray(int index, int count) {
+		return base.getShortArray(getPosition() + index, count);
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String getString(int index) {
+		return base.getString(getPosition() + index);
+	}
+
+	@Override
+	public String getWideString(int index) {
+		return base.getWideString(getPosition() + index);
+	}
+
+	@Override
+	public boolean isNative() {
+		return base.isNative();
+	}
+
+	/**
+	 * A handle at <code>offset</code> from this, following this when it is
+	 * moved.
+	 */
+	@Override
+	public INativeHandle offset(int offset) {
+		return new NativeCursorHandle(this, offset);
+	}
+
+	@Override
+	public void setByte(int index, byte value) {
+		base.setByte(getPosition() + index, value);
+	}
+
+	@Override
+	public void setByteArray(int index, byte[] value, int valueOffset, int valueCount) {
+		base.setByteArray(getPosition() + index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setCLong(int index, long value) {
+		base.setCLong(getPosition() + index, value);
+	}
+
+	@Override
+	public void setCLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		base.setCLongArray(getPosition() + index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setDouble(int index, double value) {
+		base.setDouble(getPosition() + index, value);
+	}
+
+	@Override
+	public void setDoubleArray(int index, double[] value, int valueOffset, int valueCount) {
+		base.setDoubleArray(getPosition() + index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setFloat(int index, float value) {
+		base.setFloat(getPosition() + index, value);
+	}
+
+	@Override
+	public void setFloatArray(int index, float[] value, int valueOffset, int valueCount) {
+		base.setFloatArray(getPosition() + index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setInt(int index, int value) {
+		base.setInt(getPosition() + index, value);
+	}
+
+	@Override
+	public void setIntArray(int index, int[] value, int valueOffset, int valueCount) {
+		base.setIntArray(getPosition() + index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setLong(int index, long value) {
+		base.setLong(getPosition() + index, value);
+	}
+
+	@Override
+	public void setLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		base.setLongArray(getPosition() + index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setNativeHandle(int index, INativeHandle valueHandle) {
+		base.setNativeHandle(getPosition() + index, valueHandle);
+	}
+
+	/**
+	 * Move this to the byte offset <code>position</code> within
+	 * {@link #getBase()}. Handles derived via {@link #offset(int)} move along.
+	 * 
+	 * @param position The new byte offset within {@link #getBase()}
+	 */
+	public void setPosition(int position) {
+		if (parent != null) {
+			throw new IllegalStateException("derived handles can not be moved");
+		}
+		this.position = position;
+	}
+
+	@Override
+	public void setShort(int index, short value) {
+		base.setShort(getPosition() + index, value);
+	}
+
+	@Override
+	public void setShortArray(int index, short[] value, int valueOffset, int valueCount) {
+		base.setShortArray(getPosition() + index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setSize(int count) {
+		this.size = count;
+	}
+
+	@Override
+	public void setString(int index, String value) {
+		base.setString(getPosition() + index, value);
+	}
+
+	@Override
+	public void setWideString(int index, String value) {
+		base.setWideString(getPosition() + index, value);
+	}
+
+	@Override
+	public String toString() {
+		return "cursor at " + getPosition() + " in " + base; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
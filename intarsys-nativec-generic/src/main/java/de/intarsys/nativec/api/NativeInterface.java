@@ -51,11 +51,16 @@ import java.util.ServiceLoader;
  */
 public class NativeInterface {
 
-	private static INativeInterface ACTIVE;
+	/**
+	 * The active interface. This is written once upon initialization (or by an
+	 * explicit {@link #set(INativeInterface)}), the volatile read keeps
+	 * {@link #get()} free of locks.
+	 */
+	private static volatile INativeInterface ACTIVE;
 
 	private static String NAME;
 
-	public static INativeHandle NULL;
+	public static volatile INativeHandle NULL;
 
 	public static final String PROP_NATIVEINTERFACE = "de.intarsys.nativec.api.INativeInterface"; //$NON-NLS-1$
 
@@ -88,23 +93,32 @@ public class NativeInterface {
 		return null;
 	}
 
-	synchronized static public INativeInterface get() {
-		if (ACTIVE == null) {
-			set(createNativeInterface());
+	static public INativeInterface get() {
+		INativeInterface result = ACTIVE;
+		if (result == null) {
+			result = init();
 		}
-		return ACTIVE;
+		return result;
 	}
 
 	synchronized static public String getName() {
 		return NAME;
 	}
 
+	synchronized static protected INativeInterface init() {
+		if (ACTIVE == null) {
+			set(createNativeInterface());
+		}
+		return ACTIVE;
+	}
+
 	synchronized static public void set(INativeInterface nativeInterface) {
 		if (nativeInterface == null) {
 			throw new NullPointerException("no native interface available");
 		}
-		ACTIVE = nativeInterface;
+		// NULL first, so that it is valid as soon as ACTIVE is published
 		NULL = nativeInterface.createHandle(0);
+		ACTIVE = nativeInterface;
 	}
 
 	synchronized static public void setName(String name) {
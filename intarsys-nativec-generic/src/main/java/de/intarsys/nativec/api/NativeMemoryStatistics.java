@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.lang.StackWalker.StackFrame;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import javax.management.ObjectName;
+
+/**
+ * The accounting of c memory allocated by the {@link INativeInterface}
+ * implementations.
+ * <p>
+ * Accounting is disabled by default, enable it by setting the system property
+ * {@link #PROP_ENABLED} to "true". The statistics are then registered with the
+ * platform MBean server as {@link #OBJECT_NAME} and a JFR event is emitted for
+ * each allocation and release.
+ * <p>
+ * Every "n"th allocation records its allocation site, where "n" is the value
+ * of the system property {@link #PROP_SAMPLING} or
+ * {@link #setSamplingInterval(int)}. Sampling is disabled by default.
+ * <p>
+ * An {@link INativeInterface} reports each allocation via
+ * {@link #allocated(long, long)} and runs the action returned exactly once
+ * when the memory is released, either explicitly or when the garbage
+ * collector reclaims it.
+ */
+public class NativeMemoryStatistics implements INativeMemoryMXBean {
+
+	/**
+	 * The record of a single allocation, releasing it when run.
+	 */
+	protected class Allocation implements Runnable {
+
+		private final long address;
+
+		private final String site;
+
+		private final long size;
+
+		private final String type;
+
+		protected Allocation(long address, long size, String type, String site) {
+			this.address = address;
+			this.size = size;
+			this.type = type;
+			this.site = site;
+		}
+
+		@Override
+		public void run() {
+			released(this);
+		}
+	}
+
+	public static final String OBJECT_NAME = "de.intarsys.nativec:type=NativeMemory"; //$NON-NLS-1$
+
+	public static final String PROP_ENABLED = "de.intarsys.nativec.statistics"; //$NON-NLS-1$
+
+	public static final String PROP_SAMPLING = "de.intarsys.nativec.statistics.sampling"; //$NON-NLS-1$
+
+	/**
+	 * The period in milliseconds of the samples for
+	 * {@link #getAllocationRate()}.
+	 */
+	public static final long RATE_PERIOD = 1000;
+
+	/**
+	 * The number of stack frames recorded for an allocation site.
+	 */
+	public static final int SITE_DEPTH = 4;
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private static final StackWalker WALKER = StackWalker.getInstance();
+
+	/**
+	 * Created last, after the other constants are initialized.
+	 */
+	private static final NativeMemoryStatistics ACTIVE = Boolean.getBoolean(PROP_ENABLED)
+			? new NativeMemoryStatistics(Integer.getInteger(PROP_SAMPLING, 0)).register()
+			: null;
+
+	/**
+	 * The statistics, if accounting is enabled.
+	 *
+	 * @return The statistics or <code>null</code>
+	 */
+	public static NativeMemoryStatistics get() {
+		return ACTIVE;
+	}
+
+	protected static int sizeBucket(long size) {
+		if (size <= 1) {
+			return 0;
+		}
+		return Math.min(64 - Long.numberOfLeadingZeros(size - 1), 31);
+	}
+
+	private final LongAdder allocatedBytes = new LongAdder();
+
+	private final LongAdder allocationCount = new LongAdder();
+
+	private final ThreadLocal<Class<?>> allocationType = new ThreadLocal<>();
+
+	private volatile double allocationRate;
+
+	private boolean events;
+
+	/**
+	 * The allocated bytes at the last rate sample, used by the timer only.
+	 */
+	private long rateBytes;
+
+	/**
+	 * The time of the last rate sample, used by the timer only.
+	 */
+	private long rateTime = System.nanoTime();
+
+	private final Map<String, LongAdder> liveBytesBySite = new ConcurrentHashMap<>();
+
+	private final Map<String, LongAdder> liveBytesByType = new ConcurrentHashMap<>();
+
+	private final LongAdder releaseCount = new LongAdder();
+
+	private final LongAdder releasedBytes = new LongAdder();
+
+	private final AtomicLong samplingCounter = new AtomicLong();
+
+	private volatile int samplingInterval;
+
+	private final LongAdder[] sizeHistogram = new LongAdder[32];
+
+	protected NativeMemoryStatistics(int samplingInterval) {
+		super();
+		this.samplingInterval = samplingInterval;
+		for (int i = 0; i < sizeHistogram.length; i++) {
+			sizeHistogram[i] = new LongAdder();
+		}
+		try {
+			Class.forName("jdk.jfr.Event"); //$NON-NLS-1$
+			events = true;
+		} catch (ClassNotFoundException e) {
+			// jdk.jfr not in the runtime image
+		}
+	}
+
+	protected void add(Map<String, LongAdder> map, String key, long delta) {
+		if (key != null) {
+			map.computeIfAbsent(key, k -> new LongAdder()).add(delta);
+		}
+	}
+
+	/**
+	 * Account for an allocation of <code>size</code> bytes at
+	 * <code>address</code>.
+	 *
+	 * @param address
+	 *            The address of the memory
+	 * @param size
+	 *            The size in bytes
+	 * @return The action to run exactly once when the memory is released.
+	 */
+	public Runnable allocated(long address, long size) {
+		Class<?> typeClass = allocationType.get();
+		String type = typeClass == null ? null : typeClass.getName();
+		String site = null;
+		int interval = samplingInterval;
+		if (interval > 0 && samplingCounter.incrementAndGet() % interval == 0) {
+			site = WALKER.walk(frames -> frames //
+					.filter(frame -> !frame.getClassName().startsWith("de.intarsys.nativec.")) //$NON-NLS-1$
+					.limit(SITE_DEPTH) //
+					.map(StackFrame::toString) //
+					.collect(Collectors.joining(" <- "))); //$NON-NLS-1$
+		}
+		allocationCount.increment();
+		allocatedBytes.add(size);
+		sizeHistogram[sizeBucket(size)].increment();
+		add(liveBytesByType, type, size);
+		add(liveBytesBySite, site, size);
+		if (events) {
+			NativeAllocationEvent event = new NativeAllocationEvent();
+			if (event.isEnabled()) {
+				event.address = address;
+				event.size = size;
+				event.type = type;
+				event.commit();
+			}
+		}
+		return new Allocation(address, size, type, site);
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes.sum();
+	}
+
+	@Override
+	public long getAllocationCount() {
+		return allocationCount.sum();
+	}
+
+	@Override
+	public double getAllocationRate() {
+		return allocationRate;
+	}
+
+	@Override
+	public long getLiveBytes() {
+		return getAllocatedBytes() - getReleasedBytes();
+	}
+
+	@Override
+	public Map<String, Long> getLiveBytesBySite() {
+		return snapshot(liveBytesBySite);
+	}
+
+	@Override
+	public Map<String, Long> getLiveBytesByType() {
+		return snapshot(liveBytesByType);
+	}
+
+	@Override
+	public long getLiveCount() {
+		return getAllocationCount() - releaseCount.sum();
+	}
+
+	@Override
+	public long getReleasedBytes() {
+		return releasedBytes.sum();
+	}
+
+	@Override
+	public int getSamplingInterval() {
+		return samplingInterval;
+	}
+
+	@Override
+	public long[] getSizeHistogram() {
+		long[] result = new long[sizeHistogram.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = sizeHistogram[i].sum();
+		}
+		return result;
+	}
+
+	/**
+	 * Account for an allocation like {@link #allocated(long, long)}, releasing
+	 * it when <code>owner</code> is reclaimed by the garbage collector.
+	 *
+	 * @param owner
+	 *            The object owning the memory
+	 * @param address
+	 *            The address of the memory
+	 * @param size
+	 *            The size in bytes
+	 * @return The {@link Cleaner.Cleanable} to clean when the memory is
+	 *         released explicitly.
+	 */
+	public Cleaner.Cleanable register(Object owner, long address, long size) {
+		return CLEANER.register(owner, allocated(address, size));
+	}
+
+	protected NativeMemoryStatistics register() {
+		Timer timer = new Timer("nativec memory statistics", true); //$NON-NLS-1$
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				sampleRate();
+			}
+		}, RATE_PERIOD, RATE_PERIOD);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (Exception | LinkageError e) {
+			// no JMX, accounting is still available via get()
+		}
+		return this;
+	}
+
+	protected void released(Allocation allocation) {
+		releaseCount.increment();
+		releasedBytes.add(allocation.size);
+		add(liveBytesByType, allocation.type, -allocation.size);
+		add(liveBytesBySite, allocation.site, -allocation.size);
+		if (events) {
+			NativeReleaseEvent event = new NativeReleaseEvent();
+			if (event.isEnabled()) {
+				event.address = allocation.address;
+				event.size = allocation.size;
+				event.type = allocation.type;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Take the sample for {@link #getAllocationRate()}, called every
+	 * {@link #RATE_PERIOD} milliseconds.
+	 */
+	protected void sampleRate() {
+		long now = System.nanoTime();
+		long bytes = getAllocatedBytes();
+		allocationRate = (bytes - rateBytes) * 1e9 / Math.max(now - rateTime, 1);
+		rateBytes = bytes;
+		rateTime = now;
+	}
+
+	/**
+	 * Attribute the allocations on the current thread to <code>type</code>,
+	 * typically the {@link de.intarsys.nativec.type.INativeObject} class the
+	 * memory is allocated for.
+	 *
+	 * @param type
+	 *            The type or <code>null</code>
+	 * @return The previous type, to be restored after the allocation.
+	 */
+	public Class<?> setAllocationType(Class<?> type) {
+		Class<?> previous = allocationType.get();
+		if (type == null) {
+			allocationType.remove();
+		} else {
+			allocationType.set(type);
+		}
+		return previous;
+	}
+
+	@Override
+	public void setSamplingInterval(int interval) {
+		this.samplingInterval = Math.max(interval, 0);
+	}
+
+	protected Map<String, Long> snapshot(Map<String, LongAdder> map) {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : map.entrySet()) {
+			long value = entry.getValue().sum();
+			if (value != 0) {
+				result.put(entry.getKey(), value);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "native memory (live " + getLiveBytes() + " bytes in " + getLiveCount() + " allocations, total " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ getAllocatedBytes() + " bytes in " + getAllocationCount() + " allocations)"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
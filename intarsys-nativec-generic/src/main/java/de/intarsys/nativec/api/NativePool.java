@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool for small chunks of c memory, organized in size classes.
+ * <p>
+ * Chunks of up to {@link #MAX_CHUNK_SIZE} bytes are carved from slabs
+ * acquired via {@link INativeInterface#allocate(int)}. A chunk handed back
+ * via {@link #free(INativeHandle)} is zeroed and kept in a per thread cache
+ * for its size class, so the next allocation of the same size class on this
+ * thread is served without any lock or native call. Larger requests are
+ * passed to the {@link INativeInterface} directly.
+ * <p>
+ * Pooled memory is reused when it is freed explicitly, by closing its handle
+ * or via {@link #free(INativeHandle)}, or else when its handle is reclaimed by
+ * the garbage collector. Chunks reclaimed by the garbage collector go to a
+ * shared queue instead of a thread's cache. Using a chunk after it is freed
+ * is undefined.
+ * <p>
+ * Slabs are kept for the lifetime of the pool, the memory held is bounded by
+ * the peak of concurrently used chunks of each size class.
+ */
+public class NativePool {
+
+	/**
+	 * The per thread free lists and current slabs, one per size class. The
+	 * chunks cached by a terminated thread are not reused.
+	 */
+	protected class Cache {
+
+		private final long[][] free = new long[SIZE_CLASSES][MAX_CACHED_CHUNKS];
+
+		private final int[] freeCount = new int[SIZE_CLASSES];
+
+		private final long[] slabAddress = new long[SIZE_CLASSES];
+
+		private final int[] slabOffset = new int[SIZE_CLASSES];
+
+		protected long allocate(int sizeClass) {
+			int count = freeCount[sizeClass];
+			if (count > 0) {
+				freeCount[sizeClass] = count - 1;
+				hits.increment();
+				return free[sizeClass][count - 1];
+			}
+			Long shared = overflow.get(sizeClass).poll();
+			if (shared != null) {
+				hits.increment();
+				return shared;
+			}
+			misses.increment();
+			int chunkSize = MIN_CHUNK_SIZE << sizeClass;
+			if (slabAddress[sizeClass] == 0 || slabOffset[sizeClass] + chunkSize > slabSize) {
+				slabAddress[sizeClass] = allocateSlab(chunkSize);
+				slabOffset[sizeClass] = 0;
+			}
+			long address = slabAddress[sizeClass] + slabOffset[sizeClass];
+			slabOffset[sizeClass] += chunkSize;
+			return address;
+		}
+
+		protected void free(int sizeClass, long address) {
+			int count = freeCount[sizeClass];
+			if (count < MAX_CACHED_CHUNKS) {
+				free[sizeClass][count] = address;
+				freeCount[sizeClass] = count + 1;
+			} else {
+				overflow.get(sizeClass).add(address);
+			}
+		}
+	}
+
+	/**
+	 * A slab, a block of c memory holding chunks of a single size class.
+	 */
+	protected static class Slab {
+
+		private final INativeHandle handle;
+
+		private final int sizeClass;
+
+		protected Slab(INativeHandle handle, int sizeClass) {
+			this.handle = handle;
+			this.sizeClass = sizeClass;
+		}
+
+		public INativeHandle getHandle() {
+			return handle;
+		}
+
+		public int getSizeClass() {
+			return sizeClass;
+		}
+	}
+
+	public static final int DEFAULT_SLAB_SIZE = 65536;
+
+	/**
+	 * The number of freed chunks per size class kept in a thread's cache.
+	 * Beyond this, chunks go to a shared queue.
+	 */
+	public static final int MAX_CACHED_CHUNKS = 256;
+
+	public static final int MAX_CHUNK_SIZE = 128;
+
+	public static final int MIN_CHUNK_SIZE = 8;
+
+	/**
+	 * 8, 16, 32, 64 and 128 bytes.
+	 */
+	protected static final int SIZE_CLASSES = 5;
+
+	private static final byte[] ZEROS = new byte[MAX_CHUNK_SIZE];
+
+	/**
+	 * The size class for a chunk of <code>size</code> bytes.
+	 *
+	 * @param size
+	 *            The requested size, at most {@link #MAX_CHUNK_SIZE}
+	 * @return The size class index
+	 */
+	protected static int sizeClass(int size) {
+		if (size <= MIN_CHUNK_SIZE) {
+			return 0;
+		}
+		// ceil(log2(size)) - log2(MIN_CHUNK_SIZE)
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - 3;
+	}
+
+	private final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+		@Override
+		protected Cache initialValue() {
+			return new Cache();
+		}
+	};
+
+	private final LongAdder frees = new LongAdder();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final INativeInterface nativeInterface;
+
+	private final LongAdder oversized = new LongAdder();
+
+	private final List<ConcurrentLinkedQueue<Long>> overflow;
+
+	private final int slabSize;
+
+	/**
+	 * All slabs, by start address. Slabs are released with the pool only.
+	 */
+	private final ConcurrentSkipListMap<Long, Slab> slabs = new ConcurrentSkipListMap<Long, Slab>();
+
+	public NativePool(INativeInterface nativeInterface) {
+		this(nativeInterface, DEFAULT_SLAB_SIZE);
+	}
+
+	public NativePool(INativeInterface nativeInterface, int slabSize) {
+		super();
+		if (slabSize < MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("slab size too small");
+		}
+		this.nativeInterface = nativeInterface;
+		this.slabSize = slabSize;
+		overflow = new ArrayList<ConcurrentLinkedQueue<Long>>(SIZE_CLASSES);
+		for (int i = 0; i < SIZE_CLASSES; i++) {
+			overflow.add(new ConcurrentLinkedQueue<Long>());
+		}
+	}
+
+	/**
+	 * Allocate zero initialized c memory, from the pool if <code>size</code>
+	 * is at most {@link #MAX_CHUNK_SIZE}. A pooled chunk is handed back when
+	 * its {@link NativePoolHandle} is closed.
+	 *
+	 * @param size
+	 *            The size in bytes.
+	 * @return The new allocated {@link INativeHandle}
+	 */
+	public INativeHandle allocate(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size " + size + " is negative"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (size > MAX_CHUNK_SIZE) {
+			oversized.increment();
+			return nativeInterface.allocate(size);
+		}
+		long address = caches.get().allocate(sizeClass(size));
+		INativeHandle handle = nativeInterface.createHandle(address);
+		handle.setSize(size);
+		return new NativePoolHandle(this, handle);
+	}
+
+	protected long allocateSlab(int chunkSize) {
+		INativeHandle handle = nativeInterface.allocate(slabSize);
+		slabs.put(handle.getAddress(), new Slab(handle, sizeClass(chunkSize)));
+		return handle.getAddress();
+	}
+
+	/**
+	 * Hand back a chunk allocated from this pool. Handles not allocated from
+	 * the pool (for example oversized ones) are ignored and left to the garbage
+	 * collector. A {@link NativePoolHandle} is handed back only once, further
+	 * calls are ignored.
+	 *
+	 * @param handle
+	 *            The handle to the chunk
+	 * @return <code>true</code> if the chunk was returned to the pool.
+	 */
+	public boolean free(INativeHandle handle) {
+		if (!(handle instanceof NativePoolHandle) || !((NativePoolHandle) handle).release()) {
+			return false;
+		}
+		long address = handle.getAddress();
+		int sizeClass = sizeClassOf(address);
+		if (sizeClass < 0) {
+			return false;
+		}
+		handle.setByteArray(0, ZEROS, 0, MIN_CHUNK_SIZE << sizeClass);
+		caches.get().free(sizeClass, address);
+		frees.increment();
+		return true;
+	}
+
+	/**
+	 * The number of chunks handed back to the pool.
+	 *
+	 * @return The number of chunks handed back to the pool.
+	 */
+	public long getFrees() {
+		return frees.sum();
+	}
+
+	/**
+	 * The number of allocations served with a previously freed chunk.
+	 *
+	 * @return The number of allocations served with a previously freed chunk.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * The ratio of allocations served with a previously freed chunk to all
+	 * pooled allocations.
+	 *
+	 * @return The hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		long currentHits = getHits();
+		long total = currentHits + getMisses();
+		if (total == 0) {
+			return 0;
+		}
+		return (double) currentHits / total;
+	}
+
+	/**
+	 * The number of pooled allocations that needed a new chunk from a slab.
+	 *
+	 * @return The number of pooled allocations that needed a new chunk.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public INativeInterface getNativeInterface() {
+		return nativeInterface;
+	}
+
+	/**
+	 * The number of allocations too large for the pool.
+	 *
+	 * @return The number of allocations too large for the pool.
+	 */
+	public long getOversized() {
+		return oversized.sum();
+	}
+
+	/**
+	 * The number of slabs acquired so far.
+	 *
+	 * @return The number of slabs acquired so far.
+	 */
+	public int getSlabCount() {
+		return slabs.size();
+	}
+
+	public int getSlabSize() {
+		return slabSize;
+	}
+
+	/**
+	 * Hand back the chunk at <code>address</code> whose handle was reclaimed
+	 * by the garbage collector. This runs on the cleaner thread, the chunk is
+	 * queued for all threads.
+	 *
+	 * @param address
+	 *            The address of the chunk
+	 */
+	protected void reclaim(long address) {
+		int sizeClass = sizeClassOf(address);
+		if (sizeClass < 0) {
+			return;
+		}
+		nativeInterface.createHandle(address).setByteArray(0, ZEROS, 0, MIN_CHUNK_SIZE << sizeClass);
+		overflow.get(sizeClass).add(address);
+		frees.increment();
+	}
+
+	/**
+	 * The size class of the chunk at <code>address</code>.
+	 *
+	 * @param address
+	 *            The address of a chunk
+	 * @return The size class index or -1 if address is not the start of a
+	 *         chunk of this pool.
+	 */
+	protected int sizeClassOf(long address) {
+		Map.Entry<Long, Slab> entry = slabs.floorEntry(address);
+		if (entry == null || address >= entry.getKey() + slabSize) {
+			return -1;
+		}
+		int sizeClass = entry.getValue().getSizeClass();
+		if ((address - entry.getKey()) % (MIN_CHUNK_SIZE << sizeClass) != 0) {
+			return -1;
+		}
+		return sizeClass;
+	}
+
+	@Override
+	public String toString() {
+		return "native pool (hits " + getHits() + ", misses " + getMisses() + ", oversized " + getOversized() //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ ", frees " + getFrees() + ", slabs " + getSlabCount() + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The owning {@link INativeHandle} for a chunk allocated from a
+ * {@link NativePool}. {@link #close()} hands the chunk back to the pool, so
+ * that closing a {@link de.intarsys.nativec.type.NativeObject} makes its
+ * memory available for reuse. A chunk that is never closed is handed back when
+ * the handle and all handles derived via {@link #offset(int)} are garbage
+ * collected.
+ * <p>
+ * All access is forwarded to the handle created by the underlying
+ * {@link INativeInterface}.
+ */
+public class NativePoolHandle implements INativeHandle {
+
+	/**
+	 * The action handing back a chunk that was not closed. This must not refer
+	 * to the handle.
+	 */
+	protected static class Reclaim implements Runnable {
+
+		private final long address;
+
+		private final NativePool pool;
+
+		private final AtomicBoolean released;
+
+		protected Reclaim(NativePool pool, long address, AtomicBoolean released) {
+			this.pool = pool;
+			this.address = address;
+			this.released = released;
+		}
+
+		@Override
+		public void run() {
+			if (released.compareAndSet(false, true)) {
+				pool.reclaim(address);
+			}
+		}
+	}
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private final Cleaner.Cleanable cleanable;
+
+	private final INativeHandle handle;
+
+	/**
+	 * The owning handle this one is derived from, keeps the chunk in use.
+	 */
+	private final NativePoolHandle owner;
+
+	private final NativePool pool;
+
+	private final AtomicBoolean released;
+
+	protected NativePoolHandle(NativePool pool, INativeHandle handle) {
+		this.pool = pool;
+		this.handle = handle;
+		this.owner = null;
+		this.released = new AtomicBoolean();
+		this.cleanable = CLEANER.register(this, new Reclaim(pool, handle.getAddress(), released));
+	}
+
+	protected NativePoolHandle(NativePoolHandle owner, int offset) {
+		this.pool = owner.pool;
+		this.handle = owner.handle.offset(offset);
+		this.owner = owner.owner == null ? owner : owner.owner;
+		this.released = null;
+		this.cleanable = null;
+	}
+
+	@Override
+	public ByteBuffer asByteBuffer(int offset, int length) {
+		return handle.asByteBuffer(offset, length);
+	}
+
+	/**
+	 * Hand back the chunk to the pool, only once. Handles derived via
+	 * {@link #offset(int)} ignore this.
+	 */
+	@Override
+	public void close() {
+		if (owner == null) {
+			pool.free(this);
+		}
+	}
+
+	@Override
+	public long getAddress() {
+		return handle.getAddress();
+	}
+
+	@Override
+	public byte getByte(int index) {
+		return handle.getByte(index);
+	}
+
+	@Override
+	public byte[] getByteArray(int index, int count) {
+		return handle.getByteArray(index, count);
+	}
+
+	@Override
+	public long getCLong(int index) {
+		return handle.getCLong(index);
+	}
+
+	@Override
+	public long[] getCLongArray(int index, int count) {
+		return handle.getCLongArray(index, count);
+	}
+
+	@Override
+	public double getDouble(int index) {
+		return handle.getDouble(index);
+	}
+
+	@Override
+	public double[] getDoubleArray(int index, int count) {
+		return handle.getDoubleArray(index, count);
+	}
+
+	@Override
+	public float getFloat(int index) {
+		return handle.getFloat(index);
+	}
+
+	@Override
+	public float[] getFloatArray(int index, int count) {
+		return handle.getFloatArray(index, count);
+	}
+
+	@Override
+	public int getInt(int index) {
+		return handle.getInt(index);
+	}
+
+	@Override
+	public int[] getIntArray(int index, int count) {
+		return handle.getIntArray(index, count);
+	}
+
+	@Override
+	public long getLong(int index) {
+		return handle.getLong(index);
+	}
+
+	@Override
+	public long[] getLongArray(int index, int count) {
+		return handle.getLongArray(index, count);
+	}
+
+	@Override
+	public INativeHandle getNativeHandle(int index) {
+		return handle.getNativeHandle(index);
+	}
+
+	@Override
+	public short getShort(int index) {
+		return handle.getShort(index);
+	}
+
+	@Override
+	public short[] getShortArray(int index, int count) {
+		return handle.getShortArray(index, count);
+	}
+
+	@Override
+	public int getSize() {
+		return handle.getSize();
+	}
+
+	@Override
+	public String getString(int index) {
+		return handle.getString(index);
+	}
+
+	@Override
+	public String getWideString(int index) {
+		return handle.getWideString(index);
+	}
+
+	@Override
+	public boolean isOwner() {
+		return owner == null;
+	}
+
+	@Override
+	public boolean isNative() {
+		return handle.isNative();
+	}
+
+	@Override
+	public INativeHandle offset(int offset) {
+		return new NativePoolHandle(this, offset);
+	}
+
+	@Override
+	public void setByte(int index, byte value) {
+		handle.setByte(index, value);
+	}
+
+	@Override
+	public void setByteArray(int index, byte[] value, int valueOffset, int valueCount) {
+		handle.setByteArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setCLong(int index, long value) {
+		handle.setCLong(index, value);
+	}
+
+	@Override
+	public void setCLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		handle.setCLongArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setDouble(int index, double value) {
+		handle.setDouble(index, value);
+	}
+
+	@Override
+	public void setDoubleArray(int index, double[] value, int valueOffset, int valueCount) {
+		handle.setDoubleArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setFloat(int index, float value) {
+		handle.setFloat(index, value);
+	}
+
+	@Override
+	public void setFloatArray(int index, float[] value, int valueOffset, int valueCount) {
+		handle.setFloatArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setInt(int index, int value) {
+		handle.setInt(index, value);
+	}
+
+	@Override
+	public void setIntArray(int index, int[] value, int valueOffset, int valueCount) {
+		handle.setIntArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setLong(int index, long value) {
+		handle.setLong(index, value);
+	}
+
+	@Override
+	public void setLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		handle.setLongArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setNativeHandle(int index, INativeHandle valueHandle) {
+		handle.setNativeHandle(index, valueHandle);
+	}
+
+	@Override
+	public void setShort(int index, short value) {
+		handle.setShort(index, value);
+	}
+
+	@Override
+	public void setShortArray(int index, short[] value, int valueOffset, int valueCount) {
+		handle.setShortArray(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setSize(int count) {
+		handle.setSize(count);
+	}
+
+	@Override
+	public void setString(int index, String value) {
+		handle.setString(index, value);
+	}
+
+	@Override
+	public void setWideString(int index, String value) {
+		handle.setWideString(index, value);
+	}
+
+	/**
+	 * Mark the chunk as handed back.
+	 * 
+	 * @return <code>false</code> if it was handed back before.
+	 */
+	/**
+	 * Mark the chunk as handed back, only once.
+	 * 
+	 * @return <code>true</code> if the chunk was not yet handed back.
+	 */
+	protected boolean release() {
+		if (owner != null || !released.compareAndSet(false, true)) {
+			return false;
+		}
+		// the reclaim action is now a no-op
+		cleanable.clean();
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "pooled " + handle; //$NON-NLS-1$
+	}
+}
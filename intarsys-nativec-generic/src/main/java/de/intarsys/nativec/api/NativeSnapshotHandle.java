@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An {@link INativeHandle} on a heap copy of c memory.
+ * <p>
+ * The memory of the "origin" handle is read with a single bulk transfer, all
+ * further reads are served from the Java heap. Writes change only the copy
+ * and are recorded as a dirty range, which is transferred back to the origin
+ * with a single bulk transfer in {@link #writeBack()}. A snapshot that is no
+ * longer written may be shared between threads.
+ * <p>
+ * Handles derived via {@link #offset(int)}, for example those of struct
+ * members, share the copy. {@link #getAddress()} reports the address in the
+ * origin memory, operations working on the address (like passing the handle
+ * to a function) see the origin memory, not the copy. See
+ * {@link #isNative()}.
+ */
+public class NativeSnapshotHandle implements INativeHandle {
+
+	private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class,
+			ByteOrder.nativeOrder());
+
+	private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class,
+			ByteOrder.nativeOrder());
+
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private static final int LONG_SIZE = NativeInterface.get().longSize();
+
+	private static final int POINTER_SIZE = NativeInterface.get().pointerSize();
+
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class,
+			ByteOrder.nativeOrder());
+
+	private static final int WIDE_CHAR_SIZE = NativeInterface.get().wideCharSize();
+
+	private static final Charset WIDE_CHARSET;
+
+	static {
+		boolean little = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+		if (WIDE_CHAR_SIZE == 2) {
+			WIDE_CHARSET = little ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE;
+		} else {
+			WIDE_CHARSET = Charset.forName(little ? "UTF-32LE" : "UTF-32BE"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	private final byte[] data;
+
+	/**
+	 * The end of the dirty range (exclusive), relative to the origin.
+	 */
+	private int dirtyEnd;
+
+	/**
+	 * The start of the dirty range, relative to the origin.
+	 */
+	private int dirtyStart = Integer.MAX_VALUE;
+
+	private final INativeHandle origin;
+
+	/**
+	 * The byte offset within the copy.
+	 */
+	private final int position;
+
+	/**
+	 * The snapshot this is derived from or this.
+	 */
+	private final NativeSnapshotHandle root;
+
+	private int size;
+
+	/**
+	 * Copy <code>size</code> bytes of <code>origin</code> to the heap.
+	 * 
+	 * @param origin
+	 *            The handle to the c memory
+	 * @param size
+	 *            The number of bytes to copy
+	 */
+	public NativeSnapshotHandle(INativeHandle origin, int size) {
+		this.origin = origin;
+		this.data = origin.getByteArray(0, size);
+		this.root = this;
+		this.position = 0;
+		this.size = size;
+	}
+
+	protected NativeSnapshotHandle(NativeSnapshotHandle parent, int offset) {
+		this.origin = parent.origin;
+		this.data = parent.data;
+		this.root = parent.root;
+		this.position = parent.position + offset;
+		this.size = parent.size - offset;
+	}
+
+	/**
+	 * A heap {@link ByteBuffer} on the copy. As the buffer may be written, its
+	 * range is considered changed and transferred by {@link #writeBack()}.
+	 */
+	@Override
+	public ByteBuffer asByteBuffer(int offset, int length) {
+		ByteBuffer buffer = ByteBuffer.wrap(data, position + offset, length).slice().order(ByteOrder.nativeOrder());
+		markDirty(offset, length);
+		return buffer;
+	}
+
+	@Override
+	public long getAddress() {
+		return origin.getAddress() + position;
+	}
+
+	@Override
+	public byte getByte(int index) {
+		return data[position + index];
+	}
+
+	@Override
+	public byte[] getByteArray(int index, int count) {
+		byte[] result = new byte[count];
+		System.arraycopy(data, position + index, result, 0, count);
+		return result;
+	}
+
+	@Override
+	public long getCLong(int index) {
+		if (LONG_SIZE == 4) {
+			return getInt(index);
+		}
+		return getLong(index);
+	}
+
+	@Override
+	public double getDouble(int index) {
+		return (double) DOUBLE.get(data, position + index);
+	}
+
+	@Override
+	public float getFloat(int index) {
+		return (float) FLOAT.get(data, position + index);
+	}
+
+	@Override
+	public int getInt(int index) {
+		return (int) INT.get(data, position + index);
+	}
+
+	@Override
+	public long getLong(int index) {
+		return (long) LONG.get(data, position + index);
+	}
+
+	@Override
+	public INativeHandle getNativeHandle(int index) {
+		long address;
+		if (POINTER_SIZE == 4) {
+			address = getInt(index) & 0xffffffffL;
+		} else {
+			address = getLong(index);
+		}
+		return NativeInterface.get().createHandle(address);
+	}
+
+	/**
+	 * The handle to the c memory this is a copy of.
+	 * 
+	 * @return The handle to the c memory this is a copy of.
+	 */
+	public INativeHandle getOrigin() {
+		return origin;
+	}
+
+	@Override
+	public short getShort(int index) {
+		return (short) SHORT.get(data, position + index);
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String getString(int index) {
+		return getString(index, Charset.defaultCharset(), 1);
+	}
+
+	protected String getString(int index, Charset charset, int charSize) {
+		int start = position + index;
+		int end = start;
+		while (end <= data.length - charSize) {
+			if (isTerminator(end, charSize)) {
+				return new String(data, start, end - start, charset);
+			}
+			end += charSize;
+		}
+		throw new IndexOutOfBoundsException("no string terminator within the snapshot, offset=" + index); //$NON-NLS-1$
+	}
+
+	@Override
+	public String getWideString(int index) {
+		return getString(index, WIDE_CHARSET, WIDE_CHAR_SIZE);
+	}
+
+	/**
+	 * <code>true</code> if this copy was changed since it was taken or last
+	 * written back.
+	 * 
+	 * @return <code>true</code> if this copy was changed.
+	 */
+	public boolean isDirty() {
+		return root.dirtyStart < root.dirtyEnd;
+	}
+
+	/**
+	 * A snapshot is not native, it accesses a heap copy of the memory at
+	 * {@link #getAddress()}.
+	 */
+	@Override
+	public boolean isNative() {
+		return false;
+	}
+
+	protected boolean isTerminator(int offset, int charSize) {
+		for (int i = 0; i < charSize; i++) {
+			if (data[offset + i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected void markDirty(int index, int count) {
+		int start = position + index;
+		if (start < root.dirtyStart) {
+			root.dirtyStart = start;
+		}
+		if (start + count > root.dirtyEnd) {
+			root.dirtyEnd = start + count;
+		}
+	}
+
+	@Override
+	public INativeHandle offset(int offset) {
+		return new NativeSnapshotHandle(this, offset);
+	}
+
+	/**
+	 * Read the origin memory again, discarding all changes that are not
+	 * written back.
+	 */
+	public void refresh() {
+		byte[] bytes = origin.getByteArray(0, data.length);
+		System.arraycopy(bytes, 0, data, 0, data.length);
+		root.dirtyStart = Integer.MAX_VALUE;
+		root.dirtyEnd = 0;
+	}
+
+	@Override
+	public void setByte(int index, byte value) {
+		data[position + index] = value;
+		markDirty(index, 1);
+	}
+
+	@Override
+	public void setByteArray(int index, byte[] value, int valueOffset, int valueCount) {
+		System.arraycopy(value, valueOffset, data, position + index, valueCount);
+		markDirty(index, valueCount);
+	}
+
+	@Override
+	public void setCLong(int index, long value) {
+		if (LONG_SIZE == 4) {
+			setInt(index, (int) value);
+			return;
+		}
+		setLong(index, value);
+	}
+
+	@Override
+	public void setDouble(int index, double value) {
+		DOUBLE.set(data, position + index, value);
+		markDirty(index, 8);
+	}
+
+	@Override
+	public void setFloat(int index, float value) {
+		FLOAT.set(data, position + index, value);
+		markDirty(index, 4);
+	}
+
+	@Override
+	public void setInt(int index, int value) {
+		INT.set(data, position + index, value);
+		markDirty(index, 4);
+	}
+
+	@Override
+	public void setLong(int index, long value) {
+		LONG.set(data, position + index, value);
+		markDirty(index, 8);
+	}
+
+	@Override
+	public void setNativeHandle(int index, INativeHandle valueHandle) {
+		long address = valueHandle == null ? 0 : valueHandle.getAddress();
+		if (POINTER_SIZE == 4) {
+			setInt(index, (int) address);
+		} else {
+			setLong(index, address);
+		}
+	}
+
+	@Override
+	public void setShort(int index, short value) {
+		SHORT.set(data, position + index, value);
+		markDirty(index, 2);
+	}
+
+	@Override
+	public void setSize(int count) {
+		this.size = count;
+	}
+
+	@Override
+	public void setString(int index, String value) {
+		setString(index, value, Charset.defaultCharset(), 1);
+	}
+
+	protected void setString(int index, String value, Charset charset, int charSize) {
+		byte[] bytes = value.getBytes(charset);
+		setByteArray(index, bytes, 0, bytes.length);
+		for (int i = 0; i < charSize; i++) {
+			setByte(index + bytes.length + i, (byte) 0);
+		}
+	}
+
+	@Override
+	public void setWideString(int index, String value) {
+		setString(index, value, WIDE_CHARSET, WIDE_CHAR_SIZE);
+	}
+
+	@Override
+	public String toString() {
+		return "snapshot of " + origin; //$NON-NLS-1$
+	}
+
+	/**
+	 * Transfer the changed range of the copy to the origin memory.
+	 */
+	public void writeBack() {
+		NativeSnapshotHandle snapshot = root;
+		if (snapshot.dirtyStart >= snapshot.dirtyEnd) {
+			return;
+		}
+		origin.setByteArray(snapshot.dirtyStart, data, snapshot.dirtyStart, snapshot.dirtyEnd - snapshot.dirtyStart);
+		snapshot.dirtyStart = Integer.MAX_VALUE;
+		snapshot.dirtyEnd = 0;
+	}
+}
@@ -30,8 +30,6 @@
 package de.intarsys.nativec.api;
 
 import de.intarsys.nativec.type.INativeType;
-import de.intarsys.nativec.type.NativeArray;
-import de.intarsys.nativec.type.NativeArrayType;
 import de.intarsys.nativec.type.NativeBuffer;
 import de.intarsys.nativec.type.NativeBufferType;
 import de.intarsys.nativec.type.NativeInt;
@@ -79,15 +77,7 @@ public class NativeTools {
 	}
 
 	public static int[] fromNativeIntArray(INativeHandle handle, int count) {
-		int[] ints;
-		int offset;
-
-		ints = new int[count];
-		offset = NativeInt.META.getByteCount();
-		for (int index = 0; index < count; index++) {
-			ints[index] = handle.getInt(index * offset);
-		}
-		return ints;
+		return handle.getIntArray(0, count);
 	}
 
 	public static int[] fromNativeIntArray(long ptr, int count) {
@@ -124,16 +114,13 @@ public class NativeTools {
 
 	public static void toNativeCLong(long ptr, int[] value) {
 		if (value != null) {
-			INativeHandle handle;
-			NativeArrayType type;
-			NativeArray array;
+			long[] longs;
 
-			handle = NativeInterface.get().createHandle(ptr);
-			type = NativeArrayType.create(NativeLong.META, value.length);
-			array = (NativeArray) type.createNative(handle);
+			longs = new long[value.length];
 			for (int index = 0; index < value.length; index++) {
-				array.setValue(index, value[index]);
+				longs[index] = value[index];
 			}
+			toNativeCLong(ptr, longs);
 		}
 	}
 
@@ -153,15 +140,10 @@ public class NativeTools {
 	public static void toNativeCLong(long ptr, long[] value) {
 		if (value != null) {
 			INativeHandle handle;
-			NativeArrayType type;
-			NativeArray array;
 
 			handle = NativeInterface.get().createHandle(ptr);
-			type = NativeArrayType.create(NativeLong.META, value.length);
-			array = (NativeArray) type.createNative(handle);
-			for (int index = 0; index < value.length; index++) {
-				array.setValue(index, value[index]);
-			}
+			handle.setSize(NativeLong.META.getByteCount() * value.length);
+			handle.setCLongArray(0, value, 0, value.length);
 		}
 	}
 
@@ -176,15 +158,10 @@ public class NativeTools {
 	public static void toNativeInt(long ptr, int[] value) {
 		if (value != null) {
 			INativeHandle handle;
-			NativeArrayType type;
-			NativeArray array;
 
 			handle = NativeInterface.get().createHandle(ptr);
-			type = NativeArrayType.create(NativeInt.META, value.length);
-			array = (NativeArray) type.createNative(handle);
-			for (int index = 0; index < value.length; index++) {
-				array.setValue(index, value[index]);
-			}
+			handle.setSize(NativeInt.META.getByteCount() * value.length);
+			handle.setIntArray(0, value, 0, value.length);
 		}
 	}
 
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * An {@link INativeInterface} serving small allocations from a
+ * {@link NativePool}, delegating everything else.
+ * <p>
+ * Activate with
+ * 
+ * <pre>
+ * NativeInterface.set(new PooledNativeInterface(NativeInterface.get()));
+ * </pre>
+ * 
+ * From then on each {@link de.intarsys.nativec.type.NativeObject} of up to
+ * {@link NativePool#MAX_CHUNK_SIZE} bytes is allocated from the pool. Such
+ * memory is reused when it is handed back, by closing the object (or its
+ * handle) or via {@link #free(INativeHandle)}.
+ */
+public class PooledNativeInterface implements INativeInterface {
+
+	private final INativeInterface delegate;
+
+	private final NativePool pool;
+
+	public PooledNativeInterface(INativeInterface delegate) {
+		this(new NativePool(delegate));
+	}
+
+	public PooledNativeInterface(NativePool pool) {
+		super();
+		this.pool = pool;
+		this.delegate = pool.getNativeInterface();
+	}
+
+	@Override
+	public void addSearchPath(String path) {
+		delegate.addSearchPath(path);
+	}
+
+	@Override
+	public INativeHandle allocate(int size) {
+		return pool.allocate(size);
+	}
+
+	@Override
+	public INativeHandle allocateUninitialized(int size) {
+		if (size > NativePool.MAX_CHUNK_SIZE) {
+			return delegate.allocateUninitialized(size);
+		}
+		return pool.allocate(size);
+	}
+
+	@Override
+	public int compare(INativeHandle a, INativeHandle b, int length) {
+		return delegate.compare(a, b, length);
+	}
+
+	@Override
+	public void copy(INativeHandle source, int sourceOffset, INativeHandle target, int targetOffset, int length) {
+		delegate.copy(source, sourceOffset, target, targetOffset, length);
+	}
+
+	@Override
+	public INativeCallback createCallback(ICallback callback) {
+		return delegate.createCallback(callback);
+	}
+
+	@Override
+	public INativeFunction createFunction(long address) {
+		return delegate.createFunction(address);
+	}
+
+	@Override
+	public INativeFunction createFunction(long address, Object callingConvention) {
+		return delegate.createFunction(address, callingConvention);
+	}
+
+	@Override
+	public INativeHandle createHandle(ByteBuffer buffer) {
+		return delegate.createHandle(buffer);
+	}
+
+	@Override
+	public INativeHandle createHandle(long address) {
+		return delegate.createHandle(address);
+	}
+
+	@Override
+	public INativeLibrary createLibrary(String name) {
+		return delegate.createLibrary(name);
+	}
+
+	@Override
+	public INativeLibrary createLibrary(String name, Object callingConvention) {
+		return delegate.createLibrary(name, callingConvention);
+	}
+
+	/**
+	 * Hand back memory allocated via {@link #allocate(int)}.
+	 * 
+	 * @param handle
+	 *            The handle to the memory
+	 * @return <code>true</code> if the memory was returned to the pool.
+	 */
+	public boolean free(INativeHandle handle) {
+		return pool.free(handle);
+	}
+
+	public INativeInterface getDelegate() {
+		return delegate;
+	}
+
+	public NativePool getPool() {
+		return pool;
+	}
+
+	@Override
+	public int longSize() {
+		return delegate.longSize();
+	}
+
+	@Override
+	public void fill(INativeHandle handle, int offset, int length, byte value) {
+		delegate.fill(handle, offset, length, value);
+	}
+
+	@Override
+	public INativeHandle map(FileChannel channel, MapMode mode, long position, int size) throws IOException {
+		return delegate.map(channel, mode, position, size);
+	}
+
+	@Override
+	public INativeArena openArena() {
+		return delegate.openArena();
+	}
+
+	@Override
+	public int pointerSize() {
+		return delegate.pointerSize();
+	}
+
+	@Override
+	public int wideCharSize() {
+		return delegate.wideCharSize();
+	}
+}
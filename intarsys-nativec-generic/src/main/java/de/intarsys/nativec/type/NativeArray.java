@@ -29,7 +29,15 @@
  */
 package de.intarsys.nativec.type;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Consumer;
+
 import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.NativeInterface;
+import de.intarsys.nativec.api.NativeSnapshotHandle;
 
 /**
  * An {@link INativeObject} that represents a homogeneous (this means of equal
@@ -40,7 +48,20 @@ public class NativeArray extends NativeObject {
 	/** The meta class instance */
 	public static final NativeArrayType META = new NativeArrayType(NativeVoid.META, 0);
 
+	/**
+	 * Access to the elements of a cache of {@link INativeObject} instances,
+	 * populated lock-free by concurrent readers.
+	 */
+	static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(INativeObject[].class);
+
+	private static final VarHandle VALUES;
+
 	static {
+		try {
+			VALUES = MethodHandles.lookup().findVarHandle(NativeArray.class, "values", INativeObject[].class); //$NON-NLS-1$
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
 		NativeType.register(NativeArray.class, META);
 	}
 
@@ -49,6 +70,21 @@ public class NativeArray extends NativeObject {
 		return new NativeArray(type);
 	}
 
+	/**
+	 * Create a {@link NativeArray} in c memory that is not initialized. Use
+	 * only if all elements are written before they are read.
+	 * 
+	 * @param baseType
+	 *            The type of the elements
+	 * @param size
+	 *            The number of elements
+	 * @return The new {@link NativeArray}
+	 */
+	public static NativeArray createUninitialized(INativeType baseType, int size) {
+		NativeArrayType type = new NativeArrayType(baseType, size);
+		return new NativeArray(type, NativeInterface.get().allocateUninitialized(type.getByteCount()));
+	}
+
 	private INativeObject[] values;
 
 	private NativeArrayType type;
@@ -63,6 +99,31 @@ public class NativeArray extends NativeObject {
 		this.type = type;
 	}
 
+	/**
+	 * A new {@link NativeArrayCursor} to visit the elements of this without
+	 * allocating a wrapper per element.
+	 * 
+	 * @return A new {@link NativeArrayCursor}, before the first element.
+	 */
+	public NativeArrayCursor cursor() {
+		return new NativeArrayCursor(this);
+	}
+
+	/**
+	 * Perform <code>action</code> for each element, in order. The element passed
+	 * is a single flyweight object moved from element to element, see
+	 * {@link NativeArrayCursor}.
+	 * 
+	 * @param action
+	 *            The action to perform on each element
+	 */
+	public void forEach(Consumer<? super INativeObject> action) {
+		NativeArrayCursor cursor = cursor();
+		while (cursor.next()) {
+			action.accept(cursor.getElement());
+		}
+	}
+
 	public INativeType getBaseType() {
 		return type.getBaseType();
 	}
@@ -72,6 +133,179 @@ public class NativeArray extends NativeObject {
 		return type.getByteCount();
 	}
 
+	/**
+	 * The byte values of <code>member</code> in <code>count</code> struct
+	 * elements starting at <code>index</code>, read without creating the
+	 * element objects.
+	 * <p>
+	 * All column accessors transfer the memory spanned by the column in a
+	 * single bulk copy and extract the values with the element stride. The
+	 * member must be a number of the requested kind and size.
+	 * 
+	 * @param member
+	 *            The struct member
+	 * @param index
+	 *            The index of the first element
+	 * @param count
+	 *            The number of elements
+	 * @return The member values
+	 */
+	public byte[] getByteColumn(StructMember member, int index, int count) {
+		ByteBuffer column = getColumn(member, index, count, SIZE_BYTE, false);
+		int stride = type.getBaseSize();
+		byte[] result = new byte[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = column.get(i * stride);
+		}
+		return result;
+	}
+
+	/**
+	 * The c "long" values of <code>member</code>, see
+	 * {@link #getByteColumn(StructMember, int, int)}.
+	 */
+	public long[] getCLongColumn(StructMember member, int index, int count) {
+		ByteBuffer column = getColumn(member, index, count, SIZE_LONG, false);
+		int stride = type.getBaseSize();
+		long[] result = new long[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = SIZE_LONG == 4 ? column.getInt(i * stride) : column.getLong(i * stride);
+		}
+		return result;
+	}
+
+	/**
+	 * The memory spanned by <code>member</code> in <code>count</code> struct
+	 * elements starting at <code>index</code>, copied in a single transfer.
+	 * The value in element <code>index + i</code> starts at
+	 * <code>i * getBaseType().getByteCount()</code>.
+	 * 
+	 * @param member
+	 *            The struct member
+	 * @param index
+	 *            The index of the first element
+	 * @param count
+	 *            The number of elements
+	 * @param size
+	 *            The byte count of the requested number type
+	 * @param real
+	 *            <code>true</code> if a floating point number is requested
+	 * @return The column memory in native byte order
+	 */
+	protected ByteBuffer getColumn(StructMember member, int index, int count, int size, boolean real) {
+		int offset = getColumnOffset(member, index, count, size, real);
+		if (count == 0) {
+			// the offset may be past the end of the memory
+			return ByteBuffer.allocate(0);
+		}
+		int length = (count - 1) * type.getBaseSize() + size;
+		return ByteBuffer.wrap(handle.getByteArray(offset, length)).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * The byte offset of <code>member</code> in the element at
+	 * <code>index</code>, checking that <code>member</code> is a number of
+	 * the requested kind and size in the base type and that
+	 * <code>count</code> elements are available.
+	 * 
+	 * @param member
+	 *            The struct member
+	 * @param index
+	 *            The index of the first element
+	 * @param count
+	 *            The number of elements
+	 * @param size
+	 *            The byte count of the requested number type
+	 * @param real
+	 *            <code>true</code> if a floating point number is requested
+	 * @return The byte offset of the member in the first element
+	 */
+	protected int getColumnOffset(StructMember member, int index, int count, int size, boolean real) {
+		if (member.getStructType() != type.getBaseType()) {
+			throw new IllegalArgumentException(member + " is not a member of " + type.getBaseType()); //$NON-NLS-1$
+		}
+		INativeType memberType = member.getMemberType();
+		boolean memberReal = memberType instanceof NativeFloatType || memberType instanceof NativeDoubleType;
+		if (!(memberType instanceof NativeNumberType) || memberReal != real || memberType.getByteCount() != size) {
+			throw new IllegalArgumentException(member + " is not a " + size //$NON-NLS-1$
+					+ (real ? " byte floating point member" : " byte integer member")); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (index < 0 || count < 0 || index + count > getSize()) {
+			throw new IndexOutOfBoundsException("range " + index + ".." + (index + count) + " in " + getSize()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		return index * type.getBaseSize() + member.getOffset();
+	}
+
+	/**
+	 * The double values of <code>member</code>, see
+	 * {@link #getByteColumn(StructMember, int, int)}.
+	 */
+	public double[] getDoubleColumn(StructMember member, int index, int count) {
+		ByteBuffer column = getColumn(member, index, count, SIZE_DOUBLE, true);
+		int stride = type.getBaseSize();
+		double[] result = new double[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = column.getDouble(i * stride);
+		}
+		return result;
+	}
+
+	/**
+	 * The float values of <code>member</code>, see
+	 * {@link #getByteColumn(StructMember, int, int)}.
+	 */
+	public float[] getFloatColumn(StructMember member, int index, int count) {
+		ByteBuffer column = getColumn(member, index, count, SIZE_FLOAT, true);
+		int stride = type.getBaseSize();
+		float[] result = new float[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = column.getFloat(i * stride);
+		}
+		return result;
+	}
+
+	/**
+	 * The int values of <code>member</code>, see
+	 * {@link #getByteColumn(StructMember, int, int)}.
+	 */
+	public int[] getIntColumn(StructMember member, int index, int count) {
+		ByteBuffer column = getColumn(member, index, count, SIZE_INT, false);
+		int stride = type.getBaseSize();
+		int[] result = new int[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = column.getInt(i * stride);
+		}
+		return result;
+	}
+
+	/**
+	 * The 64 bit values of <code>member</code>, see
+	 * {@link #getByteColumn(StructMember, int, int)}.
+	 */
+	public long[] getLongColumn(StructMember member, int index, int count) {
+		ByteBuffer column = getColumn(member, index, count, SIZE_LONGLONG, false);
+		int stride = type.getBaseSize();
+		long[] result = new long[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = column.getLong(i * stride);
+		}
+		return result;
+	}
+
+	/**
+	 * The short values of <code>member</code>, see
+	 * {@link #getByteColumn(StructMember, int, int)}.
+	 */
+	public short[] getShortColumn(StructMember member, int index, int count) {
+		ByteBuffer column = getColumn(member, index, count, SIZE_SHORT, false);
+		int stride = type.getBaseSize();
+		short[] result = new short[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = column.getShort(i * stride);
+		}
+		return result;
+	}
+
 	/**
 	 * The {@link INativeObject} at index in the sequence (the index'th element
 	 * of the array).
@@ -81,15 +315,25 @@ public class NativeArray extends NativeObject {
 	 * 
 	 * @return The NativeObject at index
 	 */
-	synchronized public INativeObject getNativeObject(int index) {
-		if (values == null) {
-			values = new INativeObject[getSize()];
+	public INativeObject getNativeObject(int index) {
+		INativeObject[] currentValues = (INativeObject[]) VALUES.getAcquire(this);
+		if (currentValues == null) {
+			currentValues = new INativeObject[getSize()];
+			INativeObject[] witness = (INativeObject[]) VALUES.compareAndExchange(this, null, currentValues);
+			if (witness != null) {
+				currentValues = witness;
+			}
 		}
-		INativeObject result = values[index];
+		INativeObject result = (INativeObject) ELEMENTS.getAcquire(currentValues, index);
 		if (result == null) {
+			// racing threads may both create the element, only one is
+			// published
 			int elementOffset = index * type.getBaseSize();
 			result = type.getBaseType().createNative(handle.offset(elementOffset));
-			values[index] = result;
+			INativeObject witness = (INativeObject) ELEMENTS.compareAndExchange(currentValues, index, null, result);
+			if (witness != null) {
+				result = witness;
+			}
 		}
 		return result;
 	}
@@ -125,8 +369,139 @@ public class NativeArray extends NativeObject {
 		handle.setSize(getByteCount());
 	}
 
+	/**
+	 * Write the byte values of <code>member</code> in
+	 * <code>valueCount</code> struct elements starting at <code>index</code>,
+	 * without creating the element objects.
+	 * <p>
+	 * The memory spanned by the column is read, patched and written back in
+	 * one bulk transfer each, so concurrent writes to the other members of
+	 * these elements may be lost.
+	 * 
+	 * @param member
+	 *            The struct member
+	 * @param index
+	 *            The index of the first element
+	 * @param value
+	 *            The member values
+	 * @param valueOffset
+	 *            The offset of the first value
+	 * @param valueCount
+	 *            The number of elements
+	 */
+	public void setByteColumn(StructMember member, int index, byte[] value, int valueOffset, int valueCount) {
+		ByteBuffer column = getColumn(member, index, valueCount, SIZE_BYTE, false);
+		int stride = type.getBaseSize();
+		for (int i = 0; i < valueCount; i++) {
+			column.put(i * stride, value[valueOffset + i]);
+		}
+		setColumn(member, index, column);
+	}
+
+	/**
+	 * Write the c "long" values of <code>member</code>, see
+	 * {@link #setByteColumn(StructMember, int, byte[], int, int)}.
+	 */
+	public void setCLongColumn(StructMember member, int index, long[] value, int valueOffset, int valueCount) {
+		ByteBuffer column = getColumn(member, index, valueCount, SIZE_LONG, false);
+		int stride = type.getBaseSize();
+		for (int i = 0; i < valueCount; i++) {
+			if (SIZE_LONG == 4) {
+				column.putInt(i * stride, (int) value[valueOffset + i]);
+			} else {
+				column.putLong(i * stride, value[valueOffset + i]);
+			}
+		}
+		setColumn(member, index, column);
+	}
+
+	/**
+	 * Write back the column memory returned by
+	 * {@link #getColumn(StructMember, int, int, int, boolean)} for the same
+	 * <code>member</code> and <code>index</code>.
+	 * 
+	 * @param member
+	 *            The struct member
+	 * @param index
+	 *            The index of the first element
+	 * @param column
+	 *            The patched column memory
+	 */
+	protected void setColumn(StructMember member, int index, ByteBuffer column) {
+		if (column.capacity() == 0) {
+			return;
+		}
+		int offset = index * type.getBaseSize() + member.getOffset();
+		handle.setByteArray(offset, column.array(), 0, column.capacity());
+	}
+
+	/**
+	 * Write the double values of <code>member</code>, see
+	 * {@link #setByteColumn(StructMember, int, byte[], int, int)}.
+	 */
+	public void setDoubleColumn(StructMember member, int index, double[] value, int valueOffset, int valueCount) {
+		ByteBuffer column = getColumn(member, index, valueCount, SIZE_DOUBLE, true);
+		int stride = type.getBaseSize();
+		for (int i = 0; i < valueCount; i++) {
+			column.putDouble(i * stride, value[valueOffset + i]);
+		}
+		setColumn(member, index, column);
+	}
+
+	/**
+	 * Write the float values of <code>member</code>, see
+	 * {@link #setByteColumn(StructMember, int, byte[], int, int)}.
+	 */
+	public void setFloatColumn(StructMember member, int index, float[] value, int valueOffset, int valueCount) {
+		ByteBuffer column = getColumn(member, index, valueCount, SIZE_FLOAT, true);
+		int stride = type.getBaseSize();
+		for (int i = 0; i < valueCount; i++) {
+			column.putFloat(i * stride, value[valueOffset + i]);
+		}
+		setColumn(member, index, column);
+	}
+
+	/**
+	 * Write the int values of <code>member</code>, see
+	 * {@link #setByteColumn(StructMember, int, byte[], int, int)}.
+	 */
+	public void setIntColumn(StructMember member, int index, int[] value, int valueOffset, int valueCount) {
+		ByteBuffer column = getColumn(member, index, valueCount, SIZE_INT, false);
+		int stride = type.getBaseSize();
+		for (int i = 0; i < valueCount; i++) {
+			column.putInt(i * stride, value[valueOffset + i]);
+		}
+		setColumn(member, index, column);
+	}
+
+	/**
+	 * Write the 64 bit values of <code>member</code>, see
+	 * {@link #setByteColumn(StructMember, int, byte[], int, int)}.
+	 */
+	public void setLongColumn(StructMember member, int index, long[] value, int valueOffset, int valueCount) {
+		ByteBuffer column = getColumn(member, index, valueCount, SIZE_LONGLONG, false);
+		int stride = type.getBaseSize();
+		for (int i = 0; i < valueCount; i++) {
+			column.putLong(i * stride, value[valueOffset + i]);
+		}
+		setColumn(member, index, column);
+	}
+
+	/**
+	 * Write the short values of <code>member</code>, see
+	 * {@link #setByteColumn(StructMember, int, byte[], int, int)}.
+	 */
+	public void setShortColumn(StructMember member, int index, short[] value, int valueOffset, int valueCount) {
+		ByteBuffer column = getColumn(member, index, valueCount, SIZE_SHORT, false);
+		int stride = type.getBaseSize();
+		for (int i = 0; i < valueCount; i++) {
+			column.putShort(i * stride, value[valueOffset + i]);
+		}
+		setColumn(member, index, column);
+	}
+
 	public void setSize(int size) {
-		type = NativeArrayType.create(type.getBaseType(), size);
+		type = type.resize(size);
 		this.values = null;
 		handle.setSize(getByteCount());
 	}
@@ -140,6 +515,26 @@ public class NativeArray extends NativeObject {
 		throw new UnsupportedOperationException("setValue not implemented for NativeArray");
 	}
 
+	/**
+	 * A new {@link NativeArray} of <code>count</code> elements on a heap copy
+	 * of the elements starting at <code>index</code>, taken with a single bulk
+	 * read. See {@link NativeObject#snapshot()}.
+	 * 
+	 * @param index
+	 *            The index of the first element
+	 * @param count
+	 *            The number of elements
+	 * @return The snapshot of the elements
+	 */
+	public NativeArray snapshot(int index, int count) {
+		if (index < 0 || count < 0 || index + count > getSize()) {
+			throw new IndexOutOfBoundsException("range " + index + ".." + (index + count) + " in " + getSize()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		NativeArrayType snapshotType = type.resize(count);
+		INativeHandle origin = handle.offset(index * type.getBaseSize());
+		return snapshotType.createNative(new NativeSnapshotHandle(origin, snapshotType.getByteCount()));
+	}
+
 	@Override
 	public String toNestedString() {
 		return "[...]";
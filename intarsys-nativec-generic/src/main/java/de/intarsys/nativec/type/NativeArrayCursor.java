@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import de.intarsys.nativec.api.NativeCursorHandle;
+
+/**
+ * A single, reusable element wrapper for a {@link NativeArray}.
+ * <p>
+ * The element returned by {@link #moveTo(int)} or {@link #getElement()} is
+ * always the same object, it represents the array element at the current
+ * index. Scanning an array this way does not allocate per element, in
+ * contrast to {@link NativeArray#getNativeObject(int)}. Do not hold on to the
+ * element (or objects derived from it) beyond the next move.
+ * 
+ * <pre>
+ * NativeArrayCursor cursor = array.cursor();
+ * while (cursor.next()) {
+ * 	MyStruct element = (MyStruct) cursor.getElement();
+ * 	...
+ * }
+ * </pre>
+ */
+public class NativeArrayCursor {
+
+	private final NativeArray array;
+
+	private final int baseSize;
+
+	private final INativeObject element;
+
+	private final NativeCursorHandle handle;
+
+	private int index = -1;
+
+	protected NativeArrayCursor(NativeArray array) {
+		this.array = array;
+		this.baseSize = array.getBaseType().getByteCount();
+		this.handle = new NativeCursorHandle(array.getNativeHandle(), baseSize);
+		this.element = array.getBaseType().createNative(handle);
+	}
+
+	public NativeArray getArray() {
+		return array;
+	}
+
+	/**
+	 * The element at the current index.
+	 * 
+	 * @return The element at the current index.
+	 */
+	public INativeObject getElement() {
+		return element;
+	}
+
+	/**
+	 * The current index, -1 before the first move.
+	 * 
+	 * @return The current index.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Move to the element at <code>newIndex</code>.
+	 * 
+	 * @param newIndex
+	 *            The index of the element
+	 * @return The element, now at <code>newIndex</code>
+	 */
+	public INativeObject moveTo(int newIndex) {
+		if (newIndex < 0 || newIndex >= array.getSize()) {
+			throw new IndexOutOfBoundsException("index " + newIndex + " out of bounds for size " + array.getSize()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		index = newIndex;
+		handle.setPosition(newIndex * baseSize);
+		return element;
+	}
+
+	/**
+	 * Move to the next element, if any.
+	 * 
+	 * @return <code>true</code> if there was a next element.
+	 */
+	public boolean next() {
+		if (index + 1 >= array.getSize()) {
+			return false;
+		}
+		moveTo(index + 1);
+		return true;
+	}
+}
@@ -96,4 +96,16 @@ public class NativeArrayType extends NativeType {
 		return baseType.getPreferredBoundary();
 	}
 
+	/**
+	 * The type of an array of <code>newArraySize</code> elements of the same base
+	 * type. Subclasses for specialized arrays return their own type.
+	 * 
+	 * @param newArraySize
+	 *            The number of elements
+	 * @return The type of an array of <code>newArraySize</code> elements
+	 */
+	public NativeArrayType resize(int newArraySize) {
+		return create(baseType, newArraySize);
+	}
+
 }
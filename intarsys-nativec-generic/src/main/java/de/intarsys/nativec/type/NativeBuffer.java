@@ -29,10 +29,12 @@
  */
 package de.intarsys.nativec.type;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 import de.intarsys.nativec.api.INativeHandle;
 import de.intarsys.nativec.api.NativeInterface;
+import de.intarsys.nativec.api.NativeSnapshotHandle;
 
 /**
  * A wrapper for a sequence of bytes.
@@ -47,11 +49,41 @@ public class NativeBuffer extends NativeObject {
 		NativeType.register(NativeBuffer.class, META);
 	}
 
+	/**
+	 * Create a {@link NativeBuffer} in c memory that is not initialized. Use
+	 * only if the buffer is completely written before it is read.
+	 * 
+	 * @param size
+	 *            The size in bytes
+	 * @return The new {@link NativeBuffer}
+	 */
+	public static NativeBuffer createUninitialized(int size) {
+		NativeBuffer buffer = new NativeBuffer(NativeInterface.get().allocateUninitialized(size));
+		buffer.setSize(size);
+		return buffer;
+	}
+
+	/**
+	 * Create a {@link NativeBuffer} sharing the memory of the direct
+	 * {@link ByteBuffer} <code>buffer</code>, from its position to its limit.
+	 * No data is copied.
+	 * 
+	 * @param buffer
+	 *            A direct {@link ByteBuffer}
+	 * @return The new {@link NativeBuffer}
+	 */
+	public static NativeBuffer wrap(ByteBuffer buffer) {
+		NativeBuffer result = new NativeBuffer(NativeInterface.get().createHandle(buffer));
+		result.setSize(buffer.remaining());
+		return result;
+	}
+
 	private NativeBufferType type;
 
 	public NativeBuffer(byte[] bytes) {
 		type = new NativeBufferType(bytes.length);
-		handle = NativeInterface.get().allocate(bytes.length);
+		// completely overwritten below
+		handle = NativeInterface.get().allocateUninitialized(bytes.length);
 		handle.setByteArray(0, bytes, 0, bytes.length);
 	}
 
@@ -64,6 +96,24 @@ public class NativeBuffer extends NativeObject {
 		handle = NativeInterface.get().allocate(pSize);
 	}
 
+	/**
+	 * A direct {@link ByteBuffer} sharing the memory of this buffer, for example
+	 * to use it for channel I/O. For a {@link #snapshot()} this is a heap
+	 * {@link ByteBuffer} on the copy.
+	 * 
+	 * @return A {@link ByteBuffer} of {@link #getSize()} bytes
+	 */
+	public ByteBuffer asByteBuffer() {
+		return handle.asByteBuffer(0, getSize());
+	}
+
+	@Override
+	public NativeBuffer copy() {
+		NativeBuffer result = createUninitialized(getSize());
+		NativeInterface.get().copy(handle, 0, result.handle, 0, getSize());
+		return result;
+	}
+
 	@Override
 	public int getByteCount() {
 		// todo alignment?
@@ -100,9 +150,22 @@ public class NativeBuffer extends NativeObject {
 			byte[] data = (byte[]) value;
 			setByteArray(0, data, 0, data.length);
 		} else if (value instanceof ByteBuffer) {
-			byte[] data = new byte[getSize()];
-			((ByteBuffer) value).get(data);
-			setByteArray(0, data, 0, data.length);
+			ByteBuffer source = (ByteBuffer) value;
+			int size = getSize();
+			if (source.remaining() < size) {
+				throw new BufferUnderflowException();
+			}
+			ByteBuffer slice = source.duplicate();
+			slice.limit(slice.position() + size);
+			asByteBuffer().put(slice);
+			source.position(source.position() + size);
 		}
 	}
+
+	@Override
+	public NativeBuffer snapshot() {
+		NativeBuffer result = new NativeBuffer(new NativeSnapshotHandle(handle, getSize()));
+		result.setSize(getSize());
+		return result;
+	}
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import de.intarsys.nativec.api.INativeHandle;
+
+/**
+ * A {@link NativeArray} of int values.
+ * <p>
+ * Use {@link #get(int, int)} and {@link #set(int, int[], int, int)} to
+ * transfer many elements at once.
+ */
+public class NativeIntArray extends NativePrimitiveArray {
+
+	/** The meta class instance */
+	public static final NativeIntArrayType META = new NativeIntArrayType(0);
+
+	static {
+		NativeType.register(NativeIntArray.class, META);
+	}
+
+	public static NativeIntArray create(int size) {
+		return new NativeIntArray(NativeIntArrayType.create(size));
+	}
+
+	/**
+	 * Create a {@link NativeIntArray} in c memory holding a copy of <code>value</code>.
+	 * 
+	 * @param value
+	 *            The initial values
+	 * @return The new {@link NativeIntArray}
+	 */
+	public static NativeIntArray create(int[] value) {
+		return (NativeIntArray) META.createNative(value);
+	}
+
+	protected NativeIntArray(NativeIntArrayType type) {
+		super(type);
+	}
+
+	protected NativeIntArray(NativeIntArrayType type, INativeHandle handle) {
+		super(type, handle);
+	}
+
+	/**
+	 * The element at <code>index</code>.
+	 * 
+	 * @param index
+	 *            The index of the element
+	 * @return The element at <code>index</code>
+	 */
+	public int get(int index) {
+		return handle.getInt(getElementOffset(index));
+	}
+
+	/**
+	 * The <code>count</code> elements starting at <code>index</code>,
+	 * transferred at once.
+	 * 
+	 * @param index
+	 *            The index of the first element
+	 * @param count
+	 *            The number of elements
+	 * @return The elements
+	 */
+	public int[] get(int index, int count) {
+		return handle.getIntArray(getElementOffset(index, count), count);
+	}
+
+	@Override
+	protected Object getElements(int index, int count) {
+		return get(index, count);
+	}
+
+	@Override
+	public Object getValue(int index) {
+		return Integer.valueOf(get(index));
+	}
+
+	/**
+	 * Set the element at <code>index</code>.
+	 * 
+	 * @param index
+	 *            The index of the element
+	 * @param value
+	 *            The new value
+	 */
+	public void set(int index, int value) {
+		handle.setInt(getElementOffset(index), value);
+	}
+
+	/**
+	 * Set <code>valueCount</code> elements starting at <code>index</code>,
+	 * transferred at once.
+	 * 
+	 * @param index
+	 *            The index of the first element
+	 * @param value
+	 *            The new values
+	 * @param valueOffset
+	 *            The offset of the first value
+	 * @param valueCount
+	 *            The number of elements
+	 */
+	public void set(int index, int[] value, int valueOffset, int valueCount) {
+		handle.setIntArray(getElementOffset(index, valueCount), value, valueOffset, valueCount);
+	}
+
+	@Override
+	protected void setElements(int index, Object value, int valueOffset, int valueCount) {
+		set(index, (int[]) value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setValue(int index, Object value) {
+		set(index, ((Number) value).intValue());
+	}
+
+	/**
+	 * All elements as a Java array.
+	 * 
+	 * @return All elements as a Java array.
+	 */
+	public int[] toArray() {
+		return get(0, getSize());
+	}
+}
@@ -31,6 +31,8 @@ package de.intarsys.nativec.type;
 
 import de.intarsys.nativec.api.INativeHandle;
 import de.intarsys.nativec.api.NativeInterface;
+import de.intarsys.nativec.api.NativeMemoryStatistics;
+import de.intarsys.nativec.api.NativeSnapshotHandle;
 
 /**
  * An instance of an external (C memory) represented object. The C-object is
@@ -47,10 +49,12 @@ import de.intarsys.nativec.api.NativeInterface;
  * </ul>
  * </p>
  */
-public abstract class NativeObject implements INativeObject {
+public abstract class NativeObject implements INativeObject, AutoCloseable {
 
 	public static final int SIZE_BYTE = 1;
 
+	public static final int SIZE_DOUBLE = 8;
+
 	public static final int SIZE_FLOAT = 4;
 
 	public static final int SIZE_INT = 4;
@@ -107,7 +111,17 @@ public abstract class NativeObject implements INativeObject {
 	 */
 	protected void allocate() {
 		int size = getByteCount();
-		handle = NativeInterface.get().allocate(size);
+		NativeMemoryStatistics statistics = NativeMemoryStatistics.get();
+		if (statistics == null) {
+			handle = NativeInterface.get().allocate(size);
+			return;
+		}
+		Class<?> previous = statistics.setAllocationType(getClass());
+		try {
+			handle = NativeInterface.get().allocate(size);
+		} finally {
+			statistics.setAllocationType(previous);
+		}
 	}
 
 	/**
@@ -122,6 +136,46 @@ public abstract class NativeObject implements INativeObject {
 		return declaration.createNative(handle);
 	}
 
+	/**
+	 * Release the C memory of this object, if its handle owns it (that is, the
+	 * memory was allocated for this object). Objects wrapping foreign memory,
+	 * such as struct members or function results, are not affected.
+	 * <p>
+	 * Objects sharing the handle (see {@link #cast(INativeType)}) must not be
+	 * used after closing.
+	 */
+	@Override
+	public void close() {
+		if (handle != null) {
+			handle.close();
+		}
+	}
+
+	/**
+	 * A new {@link INativeObject} of the same type in newly allocated C memory,
+	 * holding a copy of the memory of this. The copy is performed natively,
+	 * nested objects referenced by pointers are not copied.
+	 * 
+	 * @return The copy of this.
+	 */
+	public INativeObject copy() {
+		int size = getByteCount();
+		INativeHandle target = NativeInterface.get().allocateUninitialized(size);
+		target.setSize(size);
+		NativeInterface.get().copy(handle, 0, target, 0, size);
+		return getNativeType().createNative(target);
+	}
+
+	/**
+	 * Overwrite the memory of this with the memory of <code>source</code>,
+	 * which must be at least {@link #getByteCount()} bytes.
+	 * 
+	 * @param source The object to copy from
+	 */
+	public void copyFrom(INativeObject source) {
+		NativeInterface.get().copy(source.getNativeHandle(), 0, handle, 0, getByteCount());
+	}
+
 	public INativeObject createReference() {
 		NativeReference<?> ref = NativeReference.create(getNativeType());
 		ref.setValue(this);
@@ -270,6 +324,18 @@ public abstract class NativeObject implements INativeObject {
 		handle.setWideString(index, value);
 	}
 
+	/**
+	 * A new {@link INativeObject} of the same type on a heap copy of the
+	 * memory of this, taken with a single bulk read. Reading the copy does not
+	 * access c memory, changes are transferred back with
+	 * {@link NativeSnapshotHandle#writeBack()} on its handle.
+	 * 
+	 * @return The snapshot of this.
+	 */
+	public INativeObject snapshot() {
+		return getNativeType().createNative(new NativeSnapshotHandle(handle, getByteCount()));
+	}
+
 	/**
 	 * A string for debugging purposes.
 	 * 
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import java.lang.reflect.Array;
+import java.util.Objects;
+
+import de.intarsys.nativec.api.INativeHandle;
+
+/**
+ * The common superclass for {@link NativeArray} implementations whose
+ * elements are accessed as Java primitives directly via the handle, without
+ * creating an {@link INativeObject} per element.
+ * <p>
+ * Subclasses add the typed accessors for single elements and for bulk
+ * transfers through the array accessors of {@link INativeHandle}.
+ */
+public abstract class NativePrimitiveArray extends NativeArray {
+
+	protected NativePrimitiveArray(NativePrimitiveArrayType type) {
+		super(type);
+	}
+
+	protected NativePrimitiveArray(NativePrimitiveArrayType type, INativeHandle handle) {
+		super(type, handle);
+	}
+
+	/**
+	 * The byte offset of the element at <code>index</code>.
+	 * 
+	 * @param index
+	 *            The index of the element
+	 * @return The byte offset of the element
+	 * @throws IndexOutOfBoundsException
+	 *             if <code>index</code> is not a valid element index
+	 */
+	protected int getElementOffset(int index) {
+		return Objects.checkIndex(index, getSize()) * getElementSize();
+	}
+
+	/**
+	 * The byte offset of the first of <code>count</code> elements starting at
+	 * <code>index</code>.
+	 * 
+	 * @param index
+	 *            The index of the first element
+	 * @param count
+	 *            The number of elements
+	 * @return The byte offset of the first element
+	 * @throws IndexOutOfBoundsException
+	 *             if the range is not within the array
+	 */
+	protected int getElementOffset(int index, int count) {
+		return Objects.checkFromIndexSize(index, count, getSize()) * getElementSize();
+	}
+
+	/**
+	 * The <code>count</code> elements starting at <code>index</code> as a
+	 * Java array, transferred at once.
+	 * 
+	 * @param index
+	 *            The index of the first element
+	 * @param count
+	 *            The number of elements
+	 * @return The elements
+	 */
+	protected abstract Object getElements(int index, int count);
+
+	/**
+	 * The byte count of a single element.
+	 * 
+	 * @return The byte count of a single element.
+	 */
+	public int getElementSize() {
+		return ((NativeArrayType) getNativeType()).getBaseSize();
+	}
+
+	/**
+	 * All elements as a Java array.
+	 * 
+	 * @return All elements as a Java array.
+	 */
+	@Override
+	public Object getValue() {
+		return getElements(0, getSize());
+	}
+
+	@Override
+	public void setBaseType(INativeType baseType) {
+		throw new UnsupportedOperationException("base type of " + getClass().getSimpleName() + " is fixed"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Set <code>valueCount</code> elements starting at <code>index</code>
+	 * from a Java array, transferred at once.
+	 * 
+	 * @param index
+	 *            The index of the first element
+	 * @param value
+	 *            The Java array holding the new values
+	 * @param valueOffset
+	 *            The offset of the first value
+	 * @param valueCount
+	 *            The number of elements
+	 */
+	protected abstract void setElements(int index, Object value, int valueOffset, int valueCount);
+
+	/**
+	 * Set the elements from a Java array of at most {@link #getSize()}
+	 * elements.
+	 * 
+	 * @param value
+	 *            A Java array of the element type
+	 */
+	@Override
+	public void setValue(Object value) {
+		setElements(0, value, 0, Array.getLength(value));
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import java.lang.reflect.Array;
+
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.NativeInterface;
+
+/**
+ * The common superclass for the types of {@link NativePrimitiveArray}
+ * implementations.
+ */
+public abstract class NativePrimitiveArrayType extends NativeArrayType {
+
+	protected NativePrimitiveArrayType(INativeType baseDeclaration, int arraySize) {
+		super(baseDeclaration, arraySize);
+	}
+
+	/**
+	 * A new array of this type wrapping <code>handle</code>, or in newly
+	 * allocated c memory if <code>handle</code> is <code>null</code>.
+	 * 
+	 * @param handle
+	 *            The memory of the array or <code>null</code>
+	 * @return The new array
+	 */
+	protected abstract NativePrimitiveArray createArray(INativeHandle handle);
+
+	@Override
+	public NativePrimitiveArray createNative(INativeHandle handle) {
+		NativePrimitiveArray array = createArray(handle);
+		if (getArraySize() > 0) {
+			array.setSize(getArraySize());
+		}
+		return array;
+	}
+
+	/**
+	 * A new array in c memory. If <code>value</code> is a Java array of the
+	 * element type, the new array is sized to and holds a copy of it.
+	 */
+	@Override
+	public NativePrimitiveArray createNative(Object value) {
+		if (value == null || value.getClass() != getJavaArrayClass()) {
+			return createArray(null);
+		}
+		NativePrimitiveArrayType type = resize(Array.getLength(value));
+		NativePrimitiveArray array = type.createArray(NativeInterface.get().allocateUninitialized(type.getByteCount()));
+		array.setValue(value);
+		return array;
+	}
+
+	/**
+	 * The class of the Java arrays holding the element values, for example
+	 * <code>int[].class</code>.
+	 * 
+	 * @return The class of the Java arrays holding the element values
+	 */
+	public abstract Class<?> getJavaArrayClass();
+
+	@Override
+	public abstract NativePrimitiveArrayType resize(int newArraySize);
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declare the layout of a c struct by the fields of the annotated class, in
+ * declaration order. The annotation processor in "intarsys-nativec-processor"
+ * generates a {@link NativeStaticStruct} subclass with typed accessors for
+ * each field, reading and writing the memory directly.
+ * 
+ * <pre>
+ * &#64;NativeStructDeclaration("Point")
+ * class PointDeclaration {
+ * 	int x;
+ * 	double y;
+ * 	&#64;NativeKind(Kind.CLONG)
+ * 	long flags;
+ * }
+ * ...
+ * Point point = new Point();
+ * point.setX(42);
+ * </pre>
+ * 
+ * Supported field types are <code>byte</code>, <code>short</code>,
+ * <code>int</code>, <code>float</code>, <code>double</code>,
+ * {@link de.intarsys.nativec.api.INativeHandle} for pointers and
+ * <code>int</code> or <code>long</code> with
+ * {@link de.intarsys.nativec.api.NativeKind.Kind#CLONG} for a c "long".
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface NativeStructDeclaration {
+
+	/**
+	 * The packing of the struct members, 0 for the platform default.
+	 * 
+	 * @return The packing of the struct members.
+	 */
+	int packing() default 0;
+
+	/**
+	 * The simple name of the generated class, in the package of the
+	 * declaration.
+	 * 
+	 * @return The simple name of the generated class.
+	 */
+	String value();
+}
@@ -29,8 +29,8 @@
  */
 package de.intarsys.nativec.type;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.intarsys.nativec.api.INativeHandle;
 
@@ -39,12 +39,16 @@ import de.intarsys.nativec.api.INativeHandle;
  */
 public abstract class NativeType implements INativeType {
 
-	/** All known meta classes. */
-	private static Map<Class<?>, INativeType> metaClasses = new HashMap<Class<?>, INativeType>();
+	/**
+	 * All known meta classes. Reads are lock free, this is queried on every
+	 * native call returning a {@link NativeObject}.
+	 */
+	private static final Map<Class<?>, INativeType> metaClasses = new ConcurrentHashMap<Class<?>, INativeType>();
 
-	public static synchronized INativeType lookup(Class<?> clazz) {
+	public static INativeType lookup(Class<?> clazz) {
 		INativeType result = metaClasses.get(clazz);
 		if (result == null) {
+			// the meta class registers itself upon class initialization
 			ClassLoader classLoader;
 
 			clazz.getClasses();
@@ -63,7 +67,11 @@ public abstract class NativeType implements INativeType {
 		return result;
 	}
 
-	public static synchronized void register(Class<?> clazz, INativeType type) {
+	public static void register(Class<?> clazz, INativeType type) {
+		if (type == null) {
+			metaClasses.remove(clazz);
+			return;
+		}
 		metaClasses.put(clazz, type);
 	}
 
@@ -29,6 +29,9 @@
  */
 package de.intarsys.nativec.type;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 import de.intarsys.nativec.api.INativeHandle;
 
 /**
@@ -36,6 +39,16 @@ import de.intarsys.nativec.api.INativeHandle;
  */
 public class StructMember {
 
+	private static final VarHandle VALUES;
+
+	static {
+		try {
+			VALUES = MethodHandles.lookup().findVarHandle(NativeStruct.class, "values", INativeObject[].class); //$NON-NLS-1$
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	/** the members declaration */
 	private final INativeType memberType;
 
@@ -97,6 +110,17 @@ public class StructMember {
 		return struct.handle.getCLong(offset + index);
 	}
 
+	/**
+	 * Performance shortcut to access "double" in the struct member.
+	 * 
+	 * @param struct The container struct instance
+	 * @param index  The memory offset from the struct member base
+	 * @return The double at index within the memory range of struct
+	 */
+	public double getDouble(NativeStruct struct, int index) {
+		return struct.handle.getDouble(offset + index);
+	}
+
 	public float getFloat(NativeStruct struct, int index) {
 		return struct.handle.getFloat(offset + index);
 	}
@@ -152,14 +176,31 @@ public class StructMember {
 		return struct.handle.getNativeHandle(offset + index);
 	}
 
-	public synchronized INativeObject getNativeObject(NativeStruct struct) {
-		if (struct.values == null) {
-			struct.values = new INativeObject[structType.getFieldsSize()];
+	/**
+	 * The {@link INativeObject} for this member in <code>struct</code>. The
+	 * objects are cached lock-free in the struct, racing threads may create
+	 * the object twice but always get the same instance.
+	 * 
+	 * @param struct The container struct instance
+	 * @return The {@link INativeObject} for this member in <code>struct</code>
+	 */
+	public INativeObject getNativeObject(NativeStruct struct) {
+		INativeObject[] values = (INativeObject[]) VALUES.getAcquire(struct);
+		if (values == null) {
+			values = new INativeObject[structType.getFieldsSize()];
+			INativeObject[] witness = (INativeObject[]) VALUES.compareAndExchange(struct, null, values);
+			if (witness != null) {
+				values = witness;
+			}
 		}
-		INativeObject result = struct.values[index];
+		INativeObject result = (INativeObject) NativeArray.ELEMENTS.getAcquire(values, index);
 		if (result == null) {
 			result = memberType.createNative(struct.getNativeHandle().offset(offset));
-			struct.values[this.index] = result;
+			INativeObject witness = (INativeObject) NativeArray.ELEMENTS.compareAndExchange(values, index, null,
+					result);
+			if (witness != null) {
+				result = witness;
+			}
 		}
 		return result;
 	}
@@ -169,7 +210,7 @@ public class StructMember {
 	 * 
 	 * @return The offset of the slot relative to the StructDeclaration.
 	 */
-	protected int getOffset() {
+	public int getOffset() {
 		return offset;
 	}
 
@@ -195,6 +236,15 @@ public class StructMember {
 		return struct.handle.getString(offset + index);
 	}
 
+	/**
+	 * The struct type declaring this member.
+	 * 
+	 * @return The struct type declaring this member.
+	 */
+	public NativeStructType getStructType() {
+		return structType;
+	}
+
 	public Object getValue(NativeStruct struct) {
 		return getNativeObject(struct).getValue();
 	}
@@ -241,6 +291,16 @@ public class StructMember {
 		struct.handle.setCLong(offset + index, value);
 	}
 
+	/**
+	 * Performance shortcut to access "double" in the struct member.
+	 * 
+	 * @param struct The container struct instance
+	 * @param index  The memory offset from the struct member base
+	 */
+	public void setDouble(NativeStruct struct, int index, double value) {
+		struct.handle.setDouble(offset + index, value);
+	}
+
 	/**
 	 * Performance shortcut to access "int" in the struct member.
 	 * 
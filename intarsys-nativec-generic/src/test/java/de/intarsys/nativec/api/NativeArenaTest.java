@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.intarsys.nativec.type.NativeBuffer;
+import de.intarsys.nativec.type.NativeString;
+
+/**
+ * Allocation, block management and release of a {@link NativeArena}.
+ */
+public class NativeArenaTest {
+
+	protected static class RecordingArena extends NativeArena {
+
+		private final List<INativeHandle> freed = new ArrayList<>();
+
+		protected RecordingArena(int blockSize) {
+			super(NativeInterface.get(), blockSize);
+		}
+
+		@Override
+		protected void freeBlock(INativeHandle handle) {
+			freed.add(handle);
+			super.freeBlock(handle);
+		}
+	}
+
+	@Test
+	public void testAllocateAligned() {
+		try (NativeArena arena = new NativeArena(NativeInterface.get(), 256)) {
+			INativeHandle first = arena.allocate(3);
+			INativeHandle second = arena.allocate(5);
+			assertEquals(3, first.getSize());
+			assertEquals(5, second.getSize());
+			assertEquals(NativeArena.ALIGNMENT, second.getAddress() - first.getAddress());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAllocateClosed() {
+		NativeArena arena = new NativeArena(NativeInterface.get());
+		arena.close();
+		arena.allocate(8);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAllocateNegative() {
+		try (NativeArena arena = new NativeArena(NativeInterface.get())) {
+			arena.allocate(-1);
+		}
+	}
+
+	@Test
+	public void testClose() {
+		RecordingArena arena = new RecordingArena(256);
+		arena.allocate(100);
+		arena.allocate(100);
+		// exceeds the first block
+		arena.allocate(100);
+		// larger than half a block, gets a dedicated one
+		arena.allocate(200);
+		arena.close();
+		arena.close();
+		assertFalse(arena.isOpen());
+		assertEquals(3, arena.freed.size());
+	}
+
+	@Test
+	public void testCreateBuffer() {
+		try (NativeArena arena = new NativeArena(NativeInterface.get())) {
+			byte[] bytes = { 1, 2, 3 };
+			NativeBuffer buffer = arena.createBuffer(bytes);
+			assertEquals(3, buffer.getSize());
+			assertArrayEquals(bytes, buffer.getNativeHandle().getByteArray(0, 3));
+		}
+	}
+
+	@Test
+	public void testCreateString() {
+		String value = "arena \u00e4"; //$NON-NLS-1$
+		byte[] bytes = value.getBytes(Charset.defaultCharset());
+		try (NativeArena arena = new NativeArena(NativeInterface.get())) {
+			NativeString string = arena.createString(value);
+			assertEquals(bytes.length + 1, string.getByteCount());
+			assertArrayEquals(bytes, string.getNativeHandle().getByteArray(0, bytes.length));
+			assertEquals(0, string.getNativeHandle().getByte(bytes.length));
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Chunk reuse, zeroing and bookkeeping of a {@link NativePool}.
+ */
+public class NativePoolTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAllocateNegative() {
+		new NativePool(NativeInterface.get()).allocate(-1);
+	}
+
+	@Test
+	public void testClose() {
+		NativePool pool = new NativePool(NativeInterface.get());
+		NativePoolHandle handle = (NativePoolHandle) pool.allocate(16);
+		long address = handle.getAddress();
+		// a derived handle does not hand back the chunk
+		((NativePoolHandle) handle.offset(8)).close();
+		assertEquals(0, pool.getFrees());
+		handle.close();
+		handle.close();
+		assertEquals(1, pool.getFrees());
+		assertEquals(address, pool.allocate(16).getAddress());
+	}
+
+	@Test
+	public void testFreeTwice() {
+		NativePool pool = new NativePool(NativeInterface.get());
+		INativeHandle handle = pool.allocate(8);
+		assertTrue(pool.free(handle));
+		assertFalse(pool.free(handle));
+		assertEquals(1, pool.getFrees());
+	}
+
+	@Test
+	public void testOversized() {
+		NativePool pool = new NativePool(NativeInterface.get());
+		INativeHandle handle = pool.allocate(NativePool.MAX_CHUNK_SIZE + 1);
+		assertFalse(handle instanceof NativePoolHandle);
+		assertFalse(pool.free(handle));
+		assertEquals(1, pool.getOversized());
+		assertEquals(0, pool.getSlabCount());
+	}
+
+	@Test
+	public void testReuse() {
+		NativePool pool = new NativePool(NativeInterface.get());
+		INativeHandle first = pool.allocate(24);
+		long address = first.getAddress();
+		assertTrue(pool.free(first));
+		// same size class
+		INativeHandle second = pool.allocate(20);
+		assertEquals(address, second.getAddress());
+		assertEquals(20, second.getSize());
+		assertEquals(1, pool.getHits());
+		assertEquals(1, pool.getMisses());
+		assertEquals(1, pool.getSlabCount());
+	}
+
+	@Test
+	public void testZeroed() {
+		NativePool pool = new NativePool(NativeInterface.get());
+		INativeHandle first = pool.allocate(32);
+		first.setLong(0, -1);
+		first.setLong(24, -1);
+		pool.free(first);
+		INativeHandle second = pool.allocate(32);
+		assertEquals(first.getAddress(), second.getAddress());
+		assertEquals(0, second.getLong(0));
+		assertEquals(0, second.getLong(24));
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.intarsys.nativec.type.NativeBuffer;
+import de.intarsys.nativec.type.NativeIntArray;
+
+/**
+ * Copy, refresh and write back of a {@link NativeSnapshotHandle}.
+ */
+public class NativeSnapshotHandleTest {
+
+	@Test
+	public void testCopy() {
+		NativeIntArray array = NativeIntArray.create(new int[] { 1, 2, 3, 4 });
+		NativeIntArray snapshot = (NativeIntArray) array.snapshot(1, 2);
+		array.set(1, 20);
+		assertArrayEquals(new int[] { 2, 3 }, snapshot.toArray());
+		((NativeSnapshotHandle) snapshot.getNativeHandle()).refresh();
+		assertArrayEquals(new int[] { 20, 3 }, snapshot.toArray());
+	}
+
+	@Test
+	public void testDerivedWriteBack() {
+		NativeIntArray array = NativeIntArray.create(4);
+		NativeSnapshotHandle snapshot = new NativeSnapshotHandle(array.getNativeHandle(), array.getByteCount());
+		snapshot.offset(8).setInt(4, 7);
+		assertTrue(snapshot.isDirty());
+		snapshot.writeBack();
+		assertEquals(7, array.get(3));
+	}
+
+	@Test
+	public void testString() {
+		NativeBuffer buffer = new NativeBuffer(new byte[] { 'a', 'b', 0, 'c', 0 });
+		NativeSnapshotHandle snapshot = new NativeSnapshotHandle(buffer.getNativeHandle(), 5);
+		assertEquals("ab", snapshot.getString(0)); //$NON-NLS-1$
+		assertEquals("c", snapshot.offset(3).getString(0)); //$NON-NLS-1$
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testStringUnterminated() {
+		NativeBuffer buffer = new NativeBuffer(new byte[] { 'a', 'b', 'c', 'd' });
+		new NativeSnapshotHandle(buffer.getNativeHandle(), 4).getString(0);
+	}
+
+	@Test
+	public void testWriteBack() {
+		NativeIntArray array = NativeIntArray.create(new int[] { 1, 2, 3, 4, 5, 6 });
+		NativeIntArray snapshot = (NativeIntArray) array.snapshot(0, 6);
+		NativeSnapshotHandle handle = (NativeSnapshotHandle) snapshot.getNativeHandle();
+		assertFalse(handle.isDirty());
+		snapshot.set(2, 30);
+		snapshot.set(3, 40);
+		assertEquals(3, array.get(2));
+		// outside the changed range, must survive the write back
+		array.set(0, 10);
+		array.set(5, 60);
+		handle.writeBack();
+		assertFalse(handle.isDirty());
+		assertArrayEquals(new int[] { 10, 2, 30, 40, 5, 60 }, array.toArray());
+	}
+}
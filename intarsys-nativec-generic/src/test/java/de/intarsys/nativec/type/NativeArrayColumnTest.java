@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Strided access to a single member of all elements of a {@link NativeArray}
+ * of structs.
+ */
+public class NativeArrayColumnTest {
+
+	private static final int SIZE = 6;
+
+	private NativeArray array;
+
+	private StructMember b;
+
+	private StructMember d;
+
+	private StructMember f;
+
+	private StructMember i;
+
+	private StructMember l;
+
+	private StructMember s;
+
+	private NativeStructType structType;
+
+	@Before
+	public void before() {
+		structType = new NativeStructType();
+		b = structType.declare("b", NativeByte.META); //$NON-NLS-1$
+		d = structType.declare("d", NativeDouble.META); //$NON-NLS-1$
+		s = structType.declare("s", NativeShort.META); //$NON-NLS-1$
+		i = structType.declare("i", NativeInt.META); //$NON-NLS-1$
+		f = structType.declare("f", NativeFloat.META); //$NON-NLS-1$
+		l = structType.declare("l", NativeLong.META); //$NON-NLS-1$
+		array = NativeArray.create(structType, SIZE);
+	}
+
+	protected NativeStruct element(int index) {
+		return new NativeGenericStruct(structType, array.getNativeHandle().offset(index * structType.getByteCount()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testForeignMember() {
+		NativeStructType other = new NativeStructType();
+		StructMember x = other.declare("x", NativeInt.META); //$NON-NLS-1$
+		array.getIntColumn(x, 0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMemberTypeMismatch() {
+		array.getDoubleColumn(i, 0, 1);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRange() {
+		array.getIntColumn(i, SIZE - 1, 2);
+	}
+
+	@Test
+	public void testRead() {
+		for (int index = 0; index < SIZE; index++) {
+			i.setValue(element(index), index * 10);
+			d.setValue(element(index), index / 2.0);
+		}
+		assertArrayEquals(new int[] { 20, 30, 40 }, array.getIntColumn(i, 2, 3));
+		assertArrayEquals(new double[] { 0, 0.5, 1, 1.5, 2, 2.5 }, array.getDoubleColumn(d, 0, SIZE), 0);
+		assertEquals(0, array.getIntColumn(i, SIZE, 0).length);
+		array.setIntColumn(i, SIZE, new int[0], 0, 0);
+	}
+
+	@Test
+	public void testWrite() {
+		array.setByteColumn(b, 0, new byte[] { 1, 2, 3, 4, 5, 6 }, 0, SIZE);
+		array.setShortColumn(s, 0, new short[] { -1, -2, -3, -4, -5, -6 }, 0, SIZE);
+		array.setFloatColumn(f, 0, new float[] { 0.25f, 0.5f, 0.75f, 1, 1.25f, 1.5f }, 0, SIZE);
+		array.setCLongColumn(l, 0, new long[] { 7, -7, 8, -8, 9, -9 }, 0, SIZE);
+		// a partial range from an offset into the values
+		array.setIntColumn(i, 2, new int[] { 0, 100, 200 }, 1, 2);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, array.getByteColumn(b, 0, SIZE));
+		assertArrayEquals(new short[] { -1, -2, -3, -4, -5, -6 }, array.getShortColumn(s, 0, SIZE));
+		assertArrayEquals(new float[] { 0.25f, 0.5f, 0.75f, 1, 1.25f, 1.5f }, array.getFloatColumn(f, 0, SIZE), 0);
+		assertArrayEquals(new long[] { 7, -7, 8, -8, 9, -9 }, array.getCLongColumn(l, 0, SIZE));
+		assertArrayEquals(new int[] { 0, 0, 100, 200, 0, 0 }, array.getIntColumn(i, 0, SIZE));
+		// the other members are left alone
+		assertEquals(Integer.valueOf(100), i.getValue(element(2)));
+		assertEquals(Byte.valueOf((byte) 3), b.getValue(element(2)));
+		assertEquals(Short.valueOf((short) -3), s.getValue(element(2)));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Race threads on the lazily populated member and element caches of fresh
+ * {@link NativeStruct} and {@link NativeArray} instances. Every thread must
+ * see the single instance that was published first.
+ */
+public class NativeCachesRaceTest {
+
+	private static final int ROUNDS = 2000;
+
+	private static final int THREADS = 8;
+
+	private static ExecutorService executor;
+
+	@AfterClass
+	public static void afterClass() {
+		executor.shutdownNow();
+	}
+
+	@BeforeClass
+	public static void beforeClass() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	protected void race(Callable<Object[]> task) throws Exception {
+		CyclicBarrier barrier = new CyclicBarrier(THREADS);
+		List<Future<Object[]>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(executor.submit(() -> {
+				barrier.await();
+				return task.call();
+			}));
+		}
+		Object[] expected = futures.get(0).get();
+		for (Future<Object[]> future : futures) {
+			Object[] actual = future.get();
+			assertEquals(expected.length, actual.length);
+			for (int i = 0; i < expected.length; i++) {
+				assertSame(expected[i], actual[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testArrayElements() throws Exception {
+		for (int i = 0; i < ROUNDS; i++) {
+			NativeArray array = NativeArray.create(NativeInt.META, 4);
+			race(() -> new Object[] { array.getNativeObject(0), array.getNativeObject(2) });
+		}
+	}
+
+	@Test
+	public void testStructMembers() throws Exception {
+		NativeStructType structType = new NativeStructType();
+		structType.declare("a", NativeInt.META); //$NON-NLS-1$
+		structType.declare("b", NativeInt.META); //$NON-NLS-1$
+		for (int i = 0; i < ROUNDS; i++) {
+			NativeStruct struct = new NativeGenericStruct(structType);
+			race(() -> new Object[] { struct.getNativeObject("a"), struct.getNativeObject("b") }); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.type;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import de.intarsys.nativec.api.INativeHandle;
+
+/**
+ * Element access and type behaviour of the {@link NativePrimitiveArray}
+ * implementations.
+ */
+public class NativePrimitiveArrayTest {
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testBounds() {
+		NativeIntArray.create(3).get(3);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testBoundsRange() {
+		NativeDoubleArray.create(3).set(2, new double[] { 1, 2 }, 0, 2);
+	}
+
+	@Test
+	public void testCreate() {
+		assertArrayEquals(new short[] { 1, -2 }, NativeShortArray.create(new short[] { 1, -2 }).toArray());
+		assertArrayEquals(new int[] { 3, -4 }, NativeIntArray.create(new int[] { 3, -4 }).toArray());
+		assertArrayEquals(new long[] { 5, -6 }, NativeLongArray.create(new long[] { 5, -6 }).toArray());
+		assertArrayEquals(new float[] { 0.5f }, NativeFloatArray.create(new float[] { 0.5f }).toArray(), 0);
+		assertArrayEquals(new double[] { 1.5, 2.5 }, NativeDoubleArray.create(new double[] { 1.5, 2.5 }).toArray(), 0);
+		NativeLongArray array = NativeLongArray.create(3);
+		assertEquals(3 * NativeObject.SIZE_LONG, array.getByteCount());
+		assertArrayEquals(new long[3], array.toArray());
+	}
+
+	@Test
+	public void testCreateNative() {
+		NativeIntArray array = (NativeIntArray) NativeIntArray.META.createNative(new int[] { 1, 2, 3 });
+		assertEquals(3, array.getSize());
+		assertArrayEquals(new int[] { 1, 2, 3 }, array.toArray());
+		INativeHandle handle = array.getNativeHandle().offset(NativeObject.SIZE_INT);
+		NativeIntArray view = (NativeIntArray) NativeIntArrayType.create(2).createNative(handle);
+		view.set(1, 30);
+		assertEquals(30, array.get(2));
+		NativeIntArray empty = (NativeIntArray) NativeIntArrayType.create(2).createNative((Object) null);
+		assertArrayEquals(new int[2], empty.toArray());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSetBaseType() {
+		NativeShortArray.create(1).setBaseType(NativeInt.META);
+	}
+
+	@Test
+	public void testSetSize() {
+		NativeFloatArray array = NativeFloatArray.create(new float[] { 1, 2, 3 });
+		array.setSize(2);
+		assertEquals(NativeFloatArrayType.class, array.getNativeType().getClass());
+		assertArrayEquals(new float[] { 1, 2 }, array.toArray(), 0);
+	}
+
+	@Test
+	public void testSnapshot() {
+		NativeIntArray array = NativeIntArray.create(new int[] { 1, 2, 3, 4 });
+		NativeIntArray snapshot = (NativeIntArray) array.snapshot(1, 2);
+		assertArrayEquals(new int[] { 2, 3 }, snapshot.toArray());
+	}
+
+	@Test
+	public void testValue() {
+		NativeDoubleArray array = NativeDoubleArray.create(3);
+		array.setValue(new double[] { 0.5, 1.5 });
+		array.setValue(2, Integer.valueOf(4));
+		assertEquals(Double.valueOf(1.5), array.getValue(1));
+		assertArrayEquals(new double[] { 0.5, 1.5, 4 }, (double[]) array.getValue(), 0);
+		assertSame(NativeDoubleArray.META, NativeType.lookup(NativeDoubleArray.class));
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.jna;
+
+import java.lang.ref.Cleaner;
+
+import com.sun.jna.Memory;
+
+import de.intarsys.nativec.api.NativeMemoryStatistics;
+
+/**
+ * {@link Memory} that can be released explicitly.
+ * <p>
+ * {@link Memory#dispose()} is protected in the JNA versions we support.
+ * <p>
+ * The memory is reported to the {@link NativeMemoryStatistics}, if enabled.
+ */
+class JnaMemory extends Memory {
+
+	private final Cleaner.Cleanable accounting;
+
+	public JnaMemory(long size) {
+		super(size);
+		NativeMemoryStatistics statistics = NativeMemoryStatistics.get();
+		accounting = statistics == null ? null : statistics.register(this, peer, size);
+	}
+
+	/**
+	 * Release the memory now instead of waiting for the garbage collector.
+	 * Releasing twice is allowed.
+	 */
+	protected void free() {
+		dispose();
+		if (accounting != null) {
+			accounting.clean();
+		}
+	}
+}
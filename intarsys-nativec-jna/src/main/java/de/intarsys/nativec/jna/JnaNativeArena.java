@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.jna;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.NativeArena;
+import de.intarsys.nativec.api.NativeMemoryStatistics;
+
+/**
+ * A {@link NativeArena} taking its blocks from the c heap directly.
+ * <p>
+ * Blocks are released via "free" when the arena is closed, an arena that is
+ * never closed leaks its memory.
+ */
+public class JnaNativeArena extends NativeArena {
+
+	/**
+	 * The release actions for the {@link NativeMemoryStatistics}.
+	 */
+	private final List<Runnable> accounting = new ArrayList<>();
+
+	public JnaNativeArena(JnaNativeInterface nativeInterface) {
+		super(nativeInterface);
+	}
+
+	@Override
+	protected INativeHandle allocateBlock(int size) {
+		long address = Native.malloc(size);
+		if (address == 0) {
+			throw new OutOfMemoryError("can not allocate " + size + " bytes");
+		}
+		Pointer pointer = new Pointer(address);
+		pointer.setMemory(0, size, (byte) 0);
+		JnaNativeHandle handle = new JnaNativeHandle(pointer);
+		handle.setSize(size);
+		NativeMemoryStatistics statistics = NativeMemoryStatistics.get();
+		if (statistics != null) {
+			accounting.add(statistics.allocated(address, size));
+		}
+		return handle;
+	}
+
+	@Override
+	public void close() {
+		if (!isOpen()) {
+			return;
+		}
+		super.close();
+		for (Runnable release : accounting) {
+			release.run();
+		}
+		accounting.clear();
+	}
+
+	@Override
+	protected void freeBlock(INativeHandle handle) {
+		Native.free(handle.getAddress());
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.jna;
+
+import com.sun.jna.Function;
+import com.sun.jna.Pointer;
+
+import de.intarsys.nativec.api.CLong;
+import de.intarsys.nativec.api.CWideString;
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.api.NativeCallSite;
+import de.intarsys.nativec.type.INativeObject;
+import de.intarsys.nativec.type.INativeType;
+import de.intarsys.nativec.type.NativeObject;
+import de.intarsys.nativec.type.NativeType;
+
+/**
+ * A {@link NativeCallSite} for the JNA implementation.
+ * <p>
+ * The conversion for each parameter and the return value is resolved once from
+ * the declared types, including the {@link INativeType} lookup for
+ * {@link NativeObject} return types.
+ * 
+ * @param <T> The return type
+ */
+public class JnaNativeCallSite<T> extends NativeCallSite<T> {
+
+	/** the argument is passed to JNA "as is" */
+	private static final int ARG_PLAIN = 0;
+
+	/** the argument type is not known in advance */
+	private static final int ARG_DYNAMIC = 1;
+
+	private static final int ARG_OBJECT = 2;
+
+	private static final int ARG_HANDLE = 3;
+
+	private static final int ARG_WIDESTRING = 4;
+
+	private static final int ARG_CLONG = 5;
+
+	private static final int RETURN_PLAIN = 0;
+
+	private static final int RETURN_WIDESTRING = 1;
+
+	private static final int RETURN_CLONG = 2;
+
+	private static final int RETURN_OBJECT = 3;
+
+	private static final int RETURN_HANDLE = 4;
+
+	protected static int argumentKind(Class<?> type) {
+		if (INativeObject.class.isAssignableFrom(type)) {
+			return ARG_OBJECT;
+		} else if (INativeHandle.class.isAssignableFrom(type)) {
+			return ARG_HANDLE;
+		} else if (CWideString.class.isAssignableFrom(type)) {
+			return ARG_WIDESTRING;
+		} else if (CLong.class.isAssignableFrom(type)) {
+			return ARG_CLONG;
+		} else if (type.isAssignableFrom(INativeObject.class) || type.isAssignableFrom(INativeHandle.class)
+				|| type.isAssignableFrom(CLong.class)) {
+			// a supertype such as Object or Number - we must look at the value
+			return ARG_DYNAMIC;
+		}
+		return ARG_PLAIN;
+	}
+
+	private final int[] argumentKinds;
+
+	private final Function function;
+
+	private final Class<?> nativeReturnType;
+
+	private final int returnKind;
+
+	private final INativeType returnNativeType;
+
+	public JnaNativeCallSite(JnaNativeFunction function, Class<T> returnType, Class<?>... parameterTypes) {
+		super(function, returnType, parameterTypes);
+		this.function = function.getFunction();
+		argumentKinds = new int[parameterTypes.length];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			argumentKinds[i] = argumentKind(parameterTypes[i]);
+		}
+		if (CWideString.class.isAssignableFrom(returnType)) {
+			returnKind = RETURN_WIDESTRING;
+			nativeReturnType = Pointer.class;
+			returnNativeType = null;
+		} else if (CLong.class.isAssignableFrom(returnType)) {
+			returnKind = RETURN_CLONG;
+			nativeReturnType = null;
+			returnNativeType = null;
+		} else if (NativeObject.class.isAssignableFrom(returnType)) {
+			returnKind = RETURN_OBJECT;
+			nativeReturnType = Pointer.class;
+			returnNativeType = NativeType.lookup(returnType);
+			if (returnNativeType == null) {
+				throw new IllegalArgumentException("no type for '" + returnType + "'");
+			}
+		} else if (INativeHandle.class.isAssignableFrom(returnType)) {
+			returnKind = RETURN_HANDLE;
+			nativeReturnType = Pointer.class;
+			returnNativeType = null;
+		} else {
+			returnKind = RETURN_PLAIN;
+			nativeReturnType = returnType;
+			returnNativeType = null;
+		}
+	}
+
+	// the results are of returnType or its wrapper, checked when binding
+	@SuppressWarnings("unchecked")
+	@Override
+	public T invoke(Object... objects) {
+		checkArguments(objects);
+		JnaScratch scratch = JnaScratch.acquire();
+		try {
+			Object[] arguments = scratch.arguments(objects.length);
+			for (int i = 0; i < objects.length; i++) {
+				Object object = objects[i];
+				if (object != null) {
+					switch (argumentKinds[i]) {
+					case ARG_OBJECT:
+						object = JnaScratch.toNative((INativeObject) object);
+						break;
+					case ARG_HANDLE:
+						object = JnaNativeHandle.toPointer((INativeHandle) object);
+						break;
+					case ARG_WIDESTRING:
+						object = scratch.toNative(i, (CWideString) object);
+						break;
+					case ARG_CLONG:
+						object = scratch.toNative(i, (CLong) object);
+						break;
+					case ARG_DYNAMIC:
+						object = scratch.toNative(i, object);
+						break;
+					default:
+						break;
+					}
+				}
+				arguments[i] = object;
+			}
+			Pointer pointer;
+			switch (returnKind) {
+			case RETURN_WIDESTRING:
+				pointer = function.invokePointer(arguments);
+				if (pointer == null) {
+					return null;
+				}
+				return (T) new CWideString(pointer.getWideString(0));
+			case RETURN_CLONG:
+				return (T) new CLong(JnaNativeFunction.invokeCLong(function, arguments));
+			case RETURN_OBJECT:
+				pointer = function.invokePointer(arguments);
+				if (pointer == null) {
+					return null;
+				}
+				return (T) returnNativeType.createNative(new JnaNativeHandle(pointer));
+			case RETURN_HANDLE:
+				pointer = function.invokePointer(arguments);
+				if (pointer == null) {
+					return null;
+				}
+				return (T) new JnaNativeHandle(pointer);
+			default:
+				return (T) function.invoke(nativeReturnType, arguments);
+			}
+		} finally {
+			scratch.release();
+		}
+	}
+
+}
@@ -135,7 +135,7 @@ public abstract class JnaNativeCallback implements IJnaNativeCallback, INativeCa
 		}
 		if (NativeObject.class.isAssignableFrom(returnType)) {
 			NativeObject nativeObject = (NativeObject) returnValue;
-			return ((JnaNativeHandle) nativeObject.getNativeHandle()).getPointer();
+			return JnaNativeHandle.toPointer(nativeObject.getNativeHandle());
 		}
 		return returnValue;
 	}
@@ -30,83 +30,173 @@
 package de.intarsys.nativec.jna;
 
 import com.sun.jna.Function;
-import com.sun.jna.NativeLong;
+import com.sun.jna.Native;
 import com.sun.jna.Pointer;
-import com.sun.jna.WString;
 
 import de.intarsys.nativec.api.CLong;
+import de.intarsys.nativec.api.INativeCallSite;
 import de.intarsys.nativec.api.INativeFunction;
 import de.intarsys.nativec.api.INativeHandle;
 import de.intarsys.nativec.api.CWideString;
-import de.intarsys.nativec.type.INativeObject;
 import de.intarsys.nativec.type.INativeType;
 import de.intarsys.nativec.type.NativeObject;
 import de.intarsys.nativec.type.NativeType;
 
 public class JnaNativeFunction implements INativeFunction {
 
+	/**
+	 * Invoke <code>function</code> with a c "long" return value.
+	 * 
+	 * @param function
+	 *            The JNA function
+	 * @param arguments
+	 *            The JNA arguments
+	 * @return The return value of the native call
+	 */
+	protected static long invokeCLong(Function function, Object[] arguments) {
+		if (Native.LONG_SIZE == 4) {
+			return function.invokeInt(arguments);
+		}
+		return function.invokeLong(arguments);
+	}
+
 	private Function function;
 
 	public JnaNativeFunction(Function function) {
 		this.function = function;
 	}
 
+	@Override
+	public <T> INativeCallSite<T> bind(Class<T> returnType, Class<?>... parameterTypes) {
+		return new JnaNativeCallSite<T>(this, returnType, parameterTypes);
+	}
+
 	protected Function getFunction() {
 		return function;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The arguments are converted into a per thread scratch array,
+	 * <code>objects</code> is not modified.
+	 */
 	public <T> T invoke(Class<T> returnType, Object... objects) {
-		for (int i = 0; i < objects.length; i++) {
-			Object object = objects[i];
-			if (object instanceof INativeObject) {
-				JnaNativeHandle handle = (JnaNativeHandle) ((INativeObject) object).getNativeHandle();
-				if (handle == null) {
-					objects[i] = null;
-				} else {
-					objects[i] = handle.getPointer();
-				}
-			} else if (object instanceof INativeHandle) {
-				JnaNativeHandle handle = (JnaNativeHandle) object;
-				objects[i] = handle.getPointer();
-			} else if (object instanceof CWideString) {
-				objects[i] = new WString(((CWideString) object).getString());
-			} else if (object instanceof CLong) {
-				objects[i] = new NativeLong(((CLong) object).longValue());
-			}
-		}
 		// if (Log.isLoggable(Level.FINE)) {
 		// Log.log(Level.FINE, "jna invoke " + function.getName());
 		// }
-		T result;
-		if (CWideString.class.isAssignableFrom(returnType)) {
-			WString wstring = (WString) function.invoke(WString.class, objects);
-			result = (T) new CWideString(wstring.toString());
-		} else if (CLong.class.isAssignableFrom(returnType)) {
-			NativeLong nativeLong = (NativeLong) function.invoke(NativeLong.class, objects);
-			result = (T) new CLong(nativeLong.longValue());
-		} else if (NativeObject.class.isAssignableFrom(returnType)) {
-			Pointer pointer = (Pointer) function.invoke(Pointer.class, objects);
-			if (pointer == null) {
-				result = null;
-			} else {
-				INativeHandle handle = new JnaNativeHandle(pointer);
-				INativeType type = NativeType.lookup(returnType);
-				if (type == null) {
-					throw new IllegalArgumentException("no type for '" + returnType + "'");
+		JnaScratch scratch = JnaScratch.acquire();
+		try {
+			Object[] arguments = toNative(scratch, objects);
+			T result;
+			if (CWideString.class.isAssignableFrom(returnType)) {
+				Pointer pointer = function.invokePointer(arguments);
+				if (pointer == null) {
+					result = null;
+				} else {
+					result = (T) new CWideString(pointer.getWideString(0));
+				}
+			} else if (CLong.class.isAssignableFrom(returnType)) {
+				result = (T) new CLong(invokeCLong(function, arguments));
+			} else if (NativeObject.class.isAssignableFrom(returnType)) {
+				Pointer pointer = function.invokePointer(arguments);
+				if (pointer == null) {
+					result = null;
+				} else {
+					INativeHandle handle = new JnaNativeHandle(pointer);
+					INativeType type = NativeType.lookup(returnType);
+					if (type == null) {
+						throw new IllegalArgumentException("no type for '" + returnType + "'");
+					}
+					result = (T) type.createNative(handle);
+				}
+			} else if (INativeHandle.class.isAssignableFrom(returnType)) {
+				Pointer pointer = function.invokePointer(arguments);
+				if (pointer == null) {
+					result = null;
+				} else {
+					result = (T) new JnaNativeHandle(pointer);
 				}
-				result = (T) type.createNative(handle);
-			}
-		} else if (INativeHandle.class.isAssignableFrom(returnType)) {
-			Pointer pointer = (Pointer) function.invoke(Pointer.class, objects);
-			if (pointer == null) {
-				result = null;
 			} else {
-				result = (T) new JnaNativeHandle(pointer);
+				result = (T) function.invoke(returnType, arguments);
 			}
-		} else {
-			result = (T) function.invoke(returnType, objects);
+			return result;
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public long invokeAddress(Object... objects) {
+		JnaScratch scratch = JnaScratch.acquire();
+		try {
+			Object[] arguments = toNative(scratch, objects);
+			// read the plain value to avoid the Pointer instance
+			if (Native.POINTER_SIZE == 4) {
+				return function.invokeInt(arguments) & 0xffffffffL;
+			}
+			return function.invokeLong(arguments);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public long invokeCLong(Object... objects) {
+		JnaScratch scratch = JnaScratch.acquire();
+		try {
+			return invokeCLong(function, toNative(scratch, objects));
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public double invokeDouble(Object... objects) {
+		JnaScratch scratch = JnaScratch.acquire();
+		try {
+			return function.invokeDouble(toNative(scratch, objects));
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public int invokeInt(Object... objects) {
+		JnaScratch scratch = JnaScratch.acquire();
+		try {
+			return function.invokeInt(toNative(scratch, objects));
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public long invokeLong(Object... objects) {
+		JnaScratch scratch = JnaScratch.acquire();
+		try {
+			return function.invokeLong(toNative(scratch, objects));
+		} finally {
+			scratch.release();
+		}
+	}
+
+	/**
+	 * Convert <code>objects</code> into the argument array of
+	 * <code>scratch</code>.
+	 * 
+	 * @param scratch
+	 *            The scratch of the current call
+	 * @param objects
+	 *            The arguments
+	 * @return The JNA arguments
+	 */
+	Object[] toNative(JnaScratch scratch, Object[] objects) {
+		Object[] arguments = scratch.arguments(objects.length);
+		for (int i = 0; i < objects.length; i++) {
+			arguments[i] = scratch.toNative(i, objects[i]);
 		}
-		return result;
+		return arguments;
 	}
 
 	@Override
@@ -29,28 +29,135 @@
  */
 package de.intarsys.nativec.jna;
 
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 
 import de.intarsys.nativec.api.INativeHandle;
 
+/**
+ * An {@link INativeHandle} implemented by a plain address.
+ * <p>
+ * Primitive values are accessed directly via {@link JnaUnsafe}, if enabled.
+ * The bounds of owned memory are checked like JNA does.
+ * The JNA {@link Pointer} is created only when needed, for example when the
+ * handle is passed to a native function. Handles created via
+ * {@link #offset(int)} or {@link #getNativeHandle(int)} are therefore cheap.
+ */
 public class JnaNativeHandle implements INativeHandle {
 
-	private final Pointer pointer;
+	/**
+	 * Convert <code>handle</code> to a {@link Pointer}. The handle may be from
+	 * another {@link de.intarsys.nativec.api.INativeInterface}.
+	 * 
+	 * @param handle
+	 *            The handle or <code>null</code>
+	 * @return The {@link Pointer} to the memory of handle
+	 */
+	public static Pointer toPointer(INativeHandle handle) {
+		if (handle == null) {
+			return null;
+		}
+		if (handle instanceof JnaNativeHandle) {
+			return ((JnaNativeHandle) handle).getPointer();
+		}
+		return new Pointer(handle.getAddress());
+	}
+
+	private final long address;
+
+	/**
+	 * The pointer, created lazily unless this owns its memory.
+	 */
+	private Pointer pointer;
+
+	/**
+	 * The owning handle this one is derived from, keeps the memory alive.
+	 */
+	private final JnaNativeHandle root;
 
 	private int size;
 
 	public JnaNativeHandle(JnaNativeHandle handle, int offset) {
-		this.pointer = new Pointer(handle.getAddress() + offset);
+		this.address = handle.address + offset;
 		this.size = handle.size - offset;
+		this.root = handle.isOwner() || handle.pointer instanceof JnaBufferPointer ? handle : handle.root;
 	}
 
 	public JnaNativeHandle(long address) {
-		this.pointer = new Pointer(address);
+		this.address = address;
+		this.root = null;
 	}
 
 	public JnaNativeHandle(Pointer pointer) {
+		this.address = JNATools.getPeer(pointer);
 		this.pointer = pointer;
+		this.root = null;
+	}
+
+	/**
+	 * The buffer on owned memory keeps the owner reachable, also for handles
+	 * derived via {@link #offset(int)}.
+	 */
+	@Override
+	public ByteBuffer asByteBuffer(int offset, int length) {
+		JnaNativeHandle owner = root == null ? this : root;
+		long ownerOffset = address - owner.address + offset;
+		if (owner.pointer instanceof Memory) {
+			// JNA keeps the memory reachable from its buffers
+			return ((Memory) owner.pointer).getByteBuffer(ownerOffset, length).order(ByteOrder.nativeOrder());
+		}
+		if (owner.pointer instanceof JnaBufferPointer) {
+			ByteBuffer buffer = ((JnaBufferPointer) owner.pointer).getBuffer().duplicate();
+			int start = buffer.position() + (int) ownerOffset;
+			buffer.limit(start + length).position(start);
+			return buffer.slice().order(ByteOrder.nativeOrder());
+		}
+		return getPointer().getByteBuffer(offset, length);
+	}
+
+	/**
+	 * The address of <code>length</code> bytes at <code>index</code> for
+	 * direct access. The bounds are checked against the owning memory, if this
+	 * owns its memory or is derived from an owner, just like JNA does.
+	 * 
+	 * @param index
+	 *            The byte offset
+	 * @param length
+	 *            The number of bytes accessed
+	 * @return The address
+	 */
+	protected long checkedAddress(int index, int length) {
+		long result = address + index;
+		JnaNativeHandle owner = root == null ? this : root;
+		long extent;
+		if (owner.pointer instanceof Memory) {
+			extent = ((Memory) owner.pointer).size();
+		} else if (owner.pointer instanceof JnaBufferPointer) {
+			extent = ((JnaBufferPointer) owner.pointer).getBuffer().capacity();
+		} else {
+			return result;
+		}
+		long ownerOffset = result - owner.address;
+		if (ownerOffset < 0 || ownerOffset > extent - length) {
+			throw new IndexOutOfBoundsException("Bounds exceeds available space : size=" + extent + ", offset=" //$NON-NLS-1$ //$NON-NLS-2$
+					+ (ownerOffset + length));
+		}
+		return result;
+	}
+
+	/**
+	 * Release the memory if allocated by {@link JnaNativeInterface}.
+	 */
+	@Override
+	public void close() {
+		if (pointer instanceof JnaMemory) {
+			((JnaMemory) pointer).free();
+		}
 	}
 
 	@Override
@@ -59,50 +166,130 @@ public class JnaNativeHandle implements INativeHandle {
 			return false;
 		}
 		INativeHandle otherHandle = (INativeHandle) obj;
-		return JNATools.getPeer(pointer) == otherHandle.getAddress() && size == otherHandle.getSize();
+		return address == otherHandle.getAddress() && size == otherHandle.getSize();
 	}
 
 	@Override
 	public long getAddress() {
-		return JNATools.getPeer(pointer);
+		return address;
 	}
 
 	@Override
 	public byte getByte(int index) {
-		return pointer.getByte(index);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				return JnaUnsafe.getByte(checkedAddress(index, 1));
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+		}
+		return getPointer().getByte(index);
 	}
 
 	@Override
 	public byte[] getByteArray(int index, int count) {
-		return pointer.getByteArray(index, count);
+		return getPointer().getByteArray(index, count);
 	}
 
 	@Override
 	public long getCLong(int index) {
 		if (Native.LONG_SIZE == 4) {
-			return pointer.getInt(index);
+			return getInt(index);
 		}
-		return pointer.getLong(index);
+		return getLong(index);
+	}
+
+	@Override
+	public long[] getCLongArray(int index, int count) {
+		if (Native.LONG_SIZE == 4) {
+			int[] ints = getPointer().getIntArray(index, count);
+			long[] result = new long[count];
+			for (int i = 0; i < count; i++) {
+				result[i] = ints[i];
+			}
+			return result;
+		}
+		return getPointer().getLongArray(index, count);
+	}
+
+	@Override
+	public double getDouble(int index) {
+		if (JnaUnsafe.ENABLED) {
+			try {
+				return JnaUnsafe.getDouble(checkedAddress(index, 8));
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+		}
+		return getPointer().getDouble(index);
+	}
+
+	@Override
+	public double[] getDoubleArray(int index, int count) {
+		return getPointer().getDoubleArray(index, count);
 	}
 
 	@Override
 	public float getFloat(int index) {
-		return pointer.getFloat(index);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				return JnaUnsafe.getFloat(checkedAddress(index, 4));
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+		}
+		return getPointer().getFloat(index);
+	}
+
+	@Override
+	public float[] getFloatArray(int index, int count) {
+		return getPointer().getFloatArray(index, count);
 	}
 
 	@Override
 	public int getInt(int index) {
-		return pointer.getInt(index);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				return JnaUnsafe.getInt(checkedAddress(index, 4));
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+		}
+		return getPointer().getInt(index);
+	}
+
+	@Override
+	public int[] getIntArray(int index, int count) {
+		return getPointer().getIntArray(index, count);
 	}
 
 	@Override
 	public long getLong(int index) {
-		return pointer.getLong(index);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				return JnaUnsafe.getLong(checkedAddress(index, 8));
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+		}
+		return getPointer().getLong(index);
+	}
+
+	@Override
+	public long[] getLongArray(int index, int count) {
+		return getPointer().getLongArray(index, count);
 	}
 
 	@Override
 	public INativeHandle getNativeHandle(int index) {
-		Pointer tempPointer = pointer.getPointer(index);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				return new JnaNativeHandle(JnaUnsafe.getAddress(checkedAddress(index, Native.POINTER_SIZE)));
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+		}
+		Pointer tempPointer = getPointer().getPointer(index);
 		if (tempPointer == null) {
 			// TODO can we reuse the existing "NULL" object?
 			return new JnaNativeHandle(0);
@@ -111,12 +298,30 @@ public class JnaNativeHandle implements INativeHandle {
 	}
 
 	public Pointer getPointer() {
-		return pointer;
+		Pointer result = pointer;
+		if (result == null) {
+			// a benign race, the pointer is immutable
+			result = new Pointer(address);
+			pointer = result;
+		}
+		return result;
 	}
 
 	@Override
 	public short getShort(int index) {
-		return pointer.getShort(index);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				return JnaUnsafe.getShort(checkedAddress(index, 2));
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+		}
+		return getPointer().getShort(index);
+	}
+
+	@Override
+	public short[] getShortArray(int index, int count) {
+		return getPointer().getShortArray(index, count);
 	}
 
 	@Override
@@ -149,7 +354,12 @@ public class JnaNativeHandle implements INativeHandle {
 
 	@Override
 	public int hashCode() {
-		return pointer.hashCode();
+		return Long.hashCode(address);
+	}
+
+	@Override
+	public boolean isOwner() {
+		return pointer instanceof JnaMemory;
 	}
 
 	@Override
@@ -159,46 +369,145 @@ public class JnaNativeHandle implements INativeHandle {
 
 	@Override
 	public void setByte(int index, byte value) {
-		pointer.setByte(index, value);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				JnaUnsafe.putByte(checkedAddress(index, 1), value);
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+			return;
+		}
+		getPointer().setByte(index, value);
 	}
 
 	@Override
 	public void setByteArray(int index, byte[] value, int valueOffset, int valueCount) {
-		pointer.write(index, value, valueOffset, valueCount);
+		getPointer().write(index, value, valueOffset, valueCount);
 	}
 
 	@Override
 	public void setCLong(int index, long value) {
 		if (Native.LONG_SIZE == 4) {
-			pointer.setInt(index, (int) value);
+			setInt(index, (int) value);
 			return;
 		}
-		pointer.setLong(index, value);
+		setLong(index, value);
+	}
+
+	@Override
+	public void setCLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		if (Native.LONG_SIZE == 4) {
+			int[] ints = new int[valueCount];
+			for (int i = 0; i < valueCount; i++) {
+				ints[i] = (int) value[valueOffset + i];
+			}
+			getPointer().write(index, ints, 0, valueCount);
+			return;
+		}
+		getPointer().write(index, value, valueOffset, valueCount);
+	}
+
+	@Override
+	public void setDouble(int index, double value) {
+		if (JnaUnsafe.ENABLED) {
+			try {
+				JnaUnsafe.putDouble(checkedAddress(index, 8), value);
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+			return;
+		}
+		getPointer().setDouble(index, value);
+	}
+
+	@Override
+	public void setDoubleArray(int index, double[] value, int valueOffset, int valueCount) {
+		getPointer().write(index, value, valueOffset, valueCount);
 	}
 
 	@Override
 	public void setFloat(int index, float value) {
-		pointer.setFloat(index, value);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				JnaUnsafe.putFloat(checkedAddress(index, 4), value);
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+			return;
+		}
+		getPointer().setFloat(index, value);
+	}
+
+	@Override
+	public void setFloatArray(int index, float[] value, int valueOffset, int valueCount) {
+		getPointer().write(index, value, valueOffset, valueCount);
 	}
 
 	@Override
 	public void setInt(int index, int value) {
-		pointer.setInt(index, value);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				JnaUnsafe.putInt(checkedAddress(index, 4), value);
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+			return;
+		}
+		getPointer().setInt(index, value);
+	}
+
+	@Override
+	public void setIntArray(int index, int[] value, int valueOffset, int valueCount) {
+		getPointer().write(index, value, valueOffset, valueCount);
 	}
 
 	@Override
 	public void setLong(int index, long value) {
-		pointer.setLong(index, value);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				JnaUnsafe.putLong(checkedAddress(index, 8), value);
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+			return;
+		}
+		getPointer().setLong(index, value);
+	}
+
+	@Override
+	public void setLongArray(int index, long[] value, int valueOffset, int valueCount) {
+		getPointer().write(index, value, valueOffset, valueCount);
 	}
 
 	@Override
 	public void setNativeHandle(int index, INativeHandle handle) {
-		pointer.setPointer(index, new Pointer(handle.getAddress()));
+		if (JnaUnsafe.ENABLED) {
+			try {
+				JnaUnsafe.putAddress(checkedAddress(index, Native.POINTER_SIZE), handle.getAddress());
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+			return;
+		}
+		getPointer().setPointer(index, new Pointer(handle.getAddress()));
 	}
 
 	@Override
 	public void setShort(int index, short value) {
-		pointer.setShort(index, value);
+		if (JnaUnsafe.ENABLED) {
+			try {
+				JnaUnsafe.putShort(checkedAddress(index, 2), value);
+			} finally {
+				Reference.reachabilityFence(this);
+			}
+			return;
+		}
+		getPointer().setShort(index, value);
+	}
+
+	@Override
+	public void setShortArray(int index, short[] value, int valueOffset, int valueCount) {
+		getPointer().write(index, value, valueOffset, valueCount);
 	}
 
 	@Override
@@ -29,6 +29,7 @@
  */
 package de.intarsys.nativec.jna;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -39,11 +40,11 @@ import java.util.logging.Logger;
 
 import com.sun.jna.Function;
 import com.sun.jna.Library;
-import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 
 import de.intarsys.nativec.api.ICallback;
+import de.intarsys.nativec.api.INativeArena;
 import de.intarsys.nativec.api.INativeCallback;
 import de.intarsys.nativec.api.INativeFunction;
 import de.intarsys.nativec.api.INativeHandle;
@@ -102,6 +103,30 @@ public class JnaNativeInterface implements INativeInterface {
 		return new JnaNativeHandle(createMemory(size));
 	}
 
+	@Override
+	public INativeHandle allocateUninitialized(int size) {
+		return new JnaNativeHandle(createMemory(size, false));
+	}
+
+	@Override
+	public int compare(INativeHandle a, INativeHandle b, int length) {
+		if (!a.isNative() || !b.isNative()) {
+			return INativeInterface.super.compare(a, b, length);
+		}
+		return JnaLibC.memcmp(JnaNativeHandle.toPointer(a), JnaNativeHandle.toPointer(b), length);
+	}
+
+	@Override
+	public void copy(INativeHandle source, int sourceOffset, INativeHandle target, int targetOffset, int length) {
+		if (!source.isNative() || !target.isNative()) {
+			INativeInterface.super.copy(source, sourceOffset, target, targetOffset, length);
+			return;
+		}
+		Pointer targetPointer = JnaNativeHandle.toPointer(target).share(targetOffset);
+		Pointer sourcePointer = JnaNativeHandle.toPointer(source).share(sourceOffset);
+		JnaLibC.memmove(targetPointer, sourcePointer, length);
+	}
+
 	@Override
 	public INativeCallback createCallback(ICallback callback) {
 		if (callback == null) {
@@ -136,6 +161,17 @@ public class JnaNativeInterface implements INativeInterface {
 		return new JnaNativeFunction(function);
 	}
 
+	@Override
+	public INativeHandle createHandle(ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			throw new IllegalArgumentException("buffer must be direct");
+		}
+		long address = JNATools.getPeer(Native.getDirectBufferPointer(buffer)) + buffer.position();
+		JnaNativeHandle handle = new JnaNativeHandle(new JnaBufferPointer(address, buffer));
+		handle.setSize(buffer.remaining());
+		return handle;
+	}
+
 	@Override
 	public INativeHandle createHandle(long address) {
 		return new JnaNativeHandle(address);
@@ -166,10 +202,25 @@ public class JnaNativeInterface implements INativeInterface {
 		}
 	}
 
+	@Override
+	public void fill(INativeHandle handle, int offset, int length, byte value) {
+		if (!handle.isNative()) {
+			INativeInterface.super.fill(handle, offset, length, value);
+			return;
+		}
+		JnaNativeHandle.toPointer(handle).setMemory(offset, length, value);
+	}
+
 	protected Pointer createMemory(int size) {
+		return createMemory(size, true);
+	}
+
+	protected Pointer createMemory(int size, boolean clear) {
 		try {
-			Pointer p = new Memory(size);
-			p.clear(size);
+			Pointer p = new JnaMemory(size);
+			if (clear) {
+				p.clear(size);
+			}
 			return p;
 		} catch (Exception e) {
 			throw new InternalError("can not create Pointer");
@@ -185,6 +236,11 @@ public class JnaNativeInterface implements INativeInterface {
 		return Native.LONG_SIZE;
 	}
 
+	@Override
+	public INativeArena openArena() {
+		return new JnaNativeArena(this);
+	}
+
 	@Override
 	public int pointerSize() {
 		return Native.POINTER_SIZE;
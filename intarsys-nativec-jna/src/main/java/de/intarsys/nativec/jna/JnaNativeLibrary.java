@@ -31,6 +31,7 @@ package de.intarsys.nativec.jna;
 
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sun.jna.Function;
 import com.sun.jna.NativeLibrary;
@@ -42,6 +43,11 @@ import de.intarsys.nativec.api.INativeLibrary;
 
 public class JnaNativeLibrary implements INativeLibrary {
 
+	/**
+	 * The functions already resolved, by name.
+	 */
+	final private Map<String, INativeFunction> functions = new ConcurrentHashMap<String, INativeFunction>();
+
 	final private NativeLibrary library;
 
 	final private JnaNativeInterface nativeInterface;
@@ -57,12 +63,21 @@ public class JnaNativeLibrary implements INativeLibrary {
 		library = NativeLibrary.getInstance(name, options);
 	}
 
-	@Override
-	public INativeFunction getFunction(String name) {
+	protected INativeFunction createFunction(String name) {
 		Function function = getLibrary().getFunction(name);
 		return new JnaNativeFunction(function);
 	}
 
+	@Override
+	public INativeFunction getFunction(String name) {
+		// plain get first, a hit does not lock
+		INativeFunction function = functions.get(name);
+		if (function == null) {
+			function = functions.computeIfAbsent(name, this::createFunction);
+		}
+		return function;
+	}
+
 	@Override
 	public INativeHandle getGlobal(String symbolName) {
 		Pointer pointer = getLibrary().getGlobalVariableAddress(symbolName);
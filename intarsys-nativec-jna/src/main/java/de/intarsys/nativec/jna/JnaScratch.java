@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.jna;
+
+import java.util.Arrays;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+import de.intarsys.nativec.api.CLong;
+import de.intarsys.nativec.api.CWideString;
+import de.intarsys.nativec.api.INativeHandle;
+import de.intarsys.nativec.type.INativeObject;
+
+/**
+ * Per thread conversion scratch for native calls.
+ * <p>
+ * A {@link JnaScratch} is acquired for the duration of a single call. The
+ * argument array, the {@link NativeLong} holders and the wide character
+ * buffers are reused by the next call on the same thread, so converting
+ * arguments produces no garbage after warm up. A call made while another call
+ * on the same thread is still active (for example from within a callback) gets
+ * a scratch of its own.
+ */
+final class JnaScratch {
+
+	/**
+	 * The number of arguments up to which argument arrays are kept.
+	 */
+	private static final int MAX_CACHED_ARGS = 16;
+
+	/**
+	 * The number of bytes up to which a wide character buffer is kept.
+	 */
+	private static final int MAX_CACHED_WIDESTRING = 4096;
+
+	private static final ThreadLocal<JnaScratch> SCRATCH = new ThreadLocal<JnaScratch>() {
+		@Override
+		protected JnaScratch initialValue() {
+			return new JnaScratch();
+		}
+	};
+
+	/**
+	 * Acquire the scratch for a new call on the current thread. It must be
+	 * handed back using {@link #release()} when the call is finished.
+	 * 
+	 * @return The scratch for the new call
+	 */
+	static JnaScratch acquire() {
+		JnaScratch scratch = SCRATCH.get();
+		while (scratch.active) {
+			if (scratch.next == null) {
+				scratch.next = new JnaScratch();
+			}
+			scratch = scratch.next;
+		}
+		scratch.active = true;
+		return scratch;
+	}
+
+	private boolean active;
+
+	private Object[] arguments;
+
+	private final Object[][] argumentsBySize = new Object[MAX_CACHED_ARGS + 1][];
+
+	private NativeLong[] longs = new NativeLong[0];
+
+	private JnaScratch next;
+
+	private Memory[] wideStrings = new Memory[0];
+
+	private JnaScratch() {
+		super();
+	}
+
+	/**
+	 * The argument array of <code>count</code> elements for the current call.
+	 * 
+	 * @param count
+	 *            The number of arguments
+	 * @return The argument array
+	 */
+	Object[] arguments(int count) {
+		if (count > MAX_CACHED_ARGS) {
+			arguments = new Object[count];
+		} else {
+			arguments = argumentsBySize[count];
+			if (arguments == null) {
+				arguments = new Object[count];
+				argumentsBySize[count] = arguments;
+			}
+		}
+		return arguments;
+	}
+
+	/**
+	 * Hand back the scratch. References to the arguments of the finished call
+	 * are dropped.
+	 */
+	void release() {
+		if (arguments != null) {
+			Arrays.fill(arguments, null);
+			arguments = null;
+		}
+		active = false;
+	}
+
+	/**
+	 * Map the argument at <code>index</code> to its JNA representation,
+	 * deciding upon the conversion by its runtime type.
+	 * 
+	 * @param index
+	 *            The argument index
+	 * @param object
+	 *            The argument
+	 * @return The JNA representation of <code>object</code>
+	 */
+	Object toNative(int index, Object object) {
+		if (object instanceof INativeObject) {
+			return toNative((INativeObject) object);
+		} else if (object instanceof INativeHandle) {
+			return JnaNativeHandle.toPointer((INativeHandle) object);
+		} else if (object instanceof CWideString) {
+			return toNative(index, (CWideString) object);
+		} else if (object instanceof CLong) {
+			return toNative(index, (CLong) object);
+		}
+		return object;
+	}
+
+	/**
+	 * A reused {@link NativeLong} holding the value of <code>object</code>.
+	 * 
+	 * @param index
+	 *            The argument index
+	 * @param object
+	 *            The argument
+	 * @return The JNA representation of <code>object</code>
+	 */
+	NativeLong toNative(int index, CLong object) {
+		if (index >= longs.length) {
+			longs = Arrays.copyOf(longs, index + 1);
+		}
+		NativeLong holder = longs[index];
+		if (holder == null) {
+			holder = new NativeLong();
+			longs[index] = holder;
+		}
+		holder.setValue(object.longValue());
+		return holder;
+	}
+
+	/**
+	 * A reused buffer holding the zero terminated wide character
+	 * representation of <code>object</code>.
+	 * 
+	 * @param index
+	 *            The argument index
+	 * @param object
+	 *            The argument
+	 * @return The JNA representation of <code>object</code>
+	 */
+	Pointer toNative(int index, CWideString object) {
+		String value = object.getString();
+		long size = ((long) value.length() + 1) * Native.WCHAR_SIZE;
+		if (size > MAX_CACHED_WIDESTRING) {
+			Memory memory = new Memory(size);
+			memory.setWideString(0, value);
+			return memory;
+		}
+		if (index >= wideStrings.length) {
+			wideStrings = Arrays.copyOf(wideStrings, index + 1);
+		}
+		Memory memory = wideStrings[index];
+		if (memory == null || memory.size() < size) {
+			// round up to the next power of two
+			memory = new Memory(Math.max(64, Long.highestOneBit(size - 1) << 1));
+			wideStrings[index] = memory;
+		}
+		memory.setWideString(0, value);
+		return memory;
+	}
+
+	/**
+	 * The pointer to the memory of <code>object</code>.
+	 * 
+	 * @param object
+	 *            The argument
+	 * @return The JNA representation of <code>object</code>
+	 */
+	static Pointer toNative(INativeObject object) {
+		return JnaNativeHandle.toPointer(object.getNativeHandle());
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.jna;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Direct memory access for {@link JnaNativeHandle}, avoiding a JNI call and a
+ * {@link com.sun.jna.Pointer} per access.
+ * <p>
+ * Direct access is opt-in, set the system property {@link #PROP_UNSAFE} to
+ * "true" to enable it. It is used only on platforms known to support
+ * unaligned access. "sun.misc.Unsafe" is looked up reflectively and accessed
+ * via constant {@link MethodHandle} instances, which the JIT inlines.
+ * <p>
+ * There are no bounds checks at this level, {@link JnaNativeHandle} checks
+ * the bounds of the memory it owns.
+ */
+class JnaUnsafe {
+
+	public static final String PROP_UNSAFE = "de.intarsys.nativec.jna.unsafe"; //$NON-NLS-1$
+
+	/**
+	 * The architectures supporting unaligned access to primitive values.
+	 */
+	private static final List<String> UNALIGNED_ARCHITECTURES = Arrays.asList("amd64", "x86_64", "x86", "i386", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			"aarch64", "ppc64le", "s390x"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	/**
+	 * <code>true</code> if direct access is enabled and available.
+	 */
+	public static final boolean ENABLED;
+
+	private static final MethodHandle GET_BYTE;
+
+	private static final MethodHandle PUT_BYTE;
+
+	private static final MethodHandle GET_SHORT;
+
+	private static final MethodHandle PUT_SHORT;
+
+	private static final MethodHandle GET_INT;
+
+	private static final MethodHandle PUT_INT;
+
+	private static final MethodHandle GET_LONG;
+
+	private static final MethodHandle PUT_LONG;
+
+	private static final MethodHandle GET_FLOAT;
+
+	private static final MethodHandle PUT_FLOAT;
+
+	private static final MethodHandle GET_DOUBLE;
+
+	private static final MethodHandle PUT_DOUBLE;
+
+	private static final MethodHandle GET_ADDRESS;
+
+	private static final MethodHandle PUT_ADDRESS;
+
+	static {
+		Object unsafe = lookup();
+		ENABLED = unsafe != null;
+		GET_BYTE = handle(unsafe, "getByte", MethodType.methodType(byte.class, long.class)); //$NON-NLS-1$
+		PUT_BYTE = handle(unsafe, "putByte", MethodType.methodType(void.class, long.class, byte.class)); //$NON-NLS-1$
+		GET_SHORT = handle(unsafe, "getShort", MethodType.methodType(short.class, long.class)); //$NON-NLS-1$
+		PUT_SHORT = handle(unsafe, "putShort", MethodType.methodType(void.class, long.class, short.class)); //$NON-NLS-1$
+		GET_INT = handle(unsafe, "getInt", MethodType.methodType(int.class, long.class)); //$NON-NLS-1$
+		PUT_INT = handle(unsafe, "putInt", MethodType.methodType(void.class, long.class, int.class)); //$NON-NLS-1$
+		GET_LONG = handle(unsafe, "getLong", MethodType.methodType(long.class, long.class)); //$NON-NLS-1$
+		PUT_LONG = handle(unsafe, "putLong", MethodType.methodType(void.class, long.class, long.class)); //$NON-NLS-1$
+		GET_FLOAT = handle(unsafe, "getFloat", MethodType.methodType(float.class, long.class)); //$NON-NLS-1$
+		PUT_FLOAT = handle(unsafe, "putFloat", MethodType.methodType(void.class, long.class, float.class)); //$NON-NLS-1$
+		GET_DOUBLE = handle(unsafe, "getDouble", MethodType.methodType(double.class, long.class)); //$NON-NLS-1$
+		PUT_DOUBLE = handle(unsafe, "putDouble", MethodType.methodType(void.class, long.class, double.class)); //$NON-NLS-1$
+		GET_ADDRESS = handle(unsafe, "getAddress", MethodType.methodType(long.class, long.class)); //$NON-NLS-1$
+		PUT_ADDRESS = handle(unsafe, "putAddress", MethodType.methodType(void.class, long.class, long.class)); //$NON-NLS-1$
+	}
+
+	static long getAddress(long address) {
+		try {
+			return (long) GET_ADDRESS.invokeExact(address);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static byte getByte(long address) {
+		try {
+			return (byte) GET_BYTE.invokeExact(address);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static double getDouble(long address) {
+		try {
+			return (double) GET_DOUBLE.invokeExact(address);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static float getFloat(long address) {
+		try {
+			return (float) GET_FLOAT.invokeExact(address);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static int getInt(long address) {
+		try {
+			return (int) GET_INT.invokeExact(address);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static long getLong(long address) {
+		try {
+			return (long) GET_LONG.invokeExact(address);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static short getShort(long address) {
+		try {
+			return (short) GET_SHORT.invokeExact(address);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	private static MethodHandle handle(Object unsafe, String name, MethodType type) {
+		if (unsafe == null) {
+			return null;
+		}
+		try {
+			return MethodHandles.lookup().findVirtual(unsafe.getClass(), name, type).bindTo(unsafe);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static Object lookup() {
+		if (!Boolean.getBoolean(PROP_UNSAFE)) {
+			return null;
+		}
+		if (!UNALIGNED_ARCHITECTURES.contains(System.getProperty("os.arch"))) { //$NON-NLS-1$
+			return null;
+		}
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe"); //$NON-NLS-1$
+			Field field = unsafeClass.getDeclaredField("theUnsafe"); //$NON-NLS-1$
+			field.setAccessible(true);
+			return field.get(null);
+		} catch (Exception | LinkageError e) {
+			return null;
+		}
+	}
+
+	static void putAddress(long address, long value) {
+		try {
+			PUT_ADDRESS.invokeExact(address, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static void putByte(long address, byte value) {
+		try {
+			PUT_BYTE.invokeExact(address, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static void putDouble(long address, double value) {
+		try {
+			PUT_DOUBLE.invokeExact(address, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static void putFloat(long address, float value) {
+		try {
+			PUT_FLOAT.invokeExact(address, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static void putInt(long address, int value) {
+		try {
+			PUT_INT.invokeExact(address, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static void putLong(long address, long value) {
+		try {
+			PUT_LONG.invokeExact(address, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	static void putShort(long address, short value) {
+		try {
+			PUT_SHORT.invokeExact(address, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	private JnaUnsafe() {
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generate a NativeStaticStruct subclass for each class annotated with
+ * "de.intarsys.nativec.type.NativeStructDeclaration".
+ * <p>
+ * The generated class declares a struct member for each instance field of the
+ * declaration, in declaration order, and typed accessors reading and writing
+ * the handle at a constant offset, without the lookup and boxing of
+ * StructMember#getValue(NativeStruct).
+ * <p>
+ * The annotations are matched by name, this processor has no dependency on
+ * the runtime library.
+ */
+@SupportedAnnotationTypes(NativeStructProcessor.ANNOTATION_DECLARATION)
+public class NativeStructProcessor extends AbstractProcessor {
+
+	/**
+	 * A field in the struct declaration.
+	 */
+	protected static class Member {
+
+		private final String accessor;
+
+		private final String constant;
+
+		private final String javaType;
+
+		private final String metaType;
+
+		private final String name;
+
+		private final String read;
+
+		private final String write;
+
+		protected Member(String name, String javaType, String metaType, String read, String write) {
+			this.name = name;
+			this.javaType = javaType;
+			this.metaType = metaType;
+			this.read = read;
+			this.write = write;
+			this.accessor = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+			this.constant = constantName(name);
+		}
+
+		public String getAccessor() {
+			return accessor;
+		}
+
+		public String getConstant() {
+			return constant;
+		}
+
+		public String getJavaType() {
+			return javaType;
+		}
+
+		public String getMetaType() {
+			return metaType;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * The expression reading the member, "%s" is the offset.
+		 * 
+		 * @return The expression reading the member.
+		 */
+		public String getRead() {
+			return read;
+		}
+
+		/**
+		 * The statement writing the member, "%s" is the offset.
+		 * 
+		 * @return The statement writing the member.
+		 */
+		public String getWrite() {
+			return write;
+		}
+	}
+
+	public static final String ANNOTATION_DECLARATION = "de.intarsys.nativec.type.NativeStructDeclaration"; //$NON-NLS-1$
+
+	public static final String ANNOTATION_KIND = "de.intarsys.nativec.api.NativeKind"; //$NON-NLS-1$
+
+	private static final String HANDLE = "de.intarsys.nativec.api.INativeHandle"; //$NON-NLS-1$
+
+	/**
+	 * "sizeInBytes" becomes "SIZE_IN_BYTES".
+	 * 
+	 * @param name
+	 *            The field name
+	 * @return The name of the constant
+	 */
+	protected static String constantName(String name) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(name.charAt(i - 1))) {
+				sb.append('_');
+			}
+			sb.append(Character.toUpperCase(c));
+		}
+		return sb.toString();
+	}
+
+	protected static AnnotationMirror getAnnotation(Element element, String name) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+			if (type.getQualifiedName().contentEquals(name)) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	protected static Object getAnnotationValue(AnnotationMirror mirror, String name, Object defaultValue) {
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues()
+				.entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals(name)) {
+				return entry.getValue().getValue();
+			}
+		}
+		return defaultValue;
+	}
+
+	protected Member createMember(VariableElement field) {
+		String name = field.getSimpleName().toString();
+		TypeMirror type = field.asType();
+		AnnotationMirror kindAnnotation = getAnnotation(field, ANNOTATION_KIND);
+		String kind = null;
+		if (kindAnnotation != null) {
+			kind = getAnnotationValue(kindAnnotation, "value", null).toString(); //$NON-NLS-1$
+		}
+		if ("CLONG".equals(kind)) { //$NON-NLS-1$
+			if (type.getKind() == TypeKind.LONG) {
+				return new Member(name, "long", "NativeLong.META", "handle.getCLong(%s)", "handle.setCLong(%s, value)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			}
+			if (type.getKind() == TypeKind.INT) {
+				return new Member(name, "int", "NativeLong.META", "(int) handle.getCLong(%s)", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						"handle.setCLong(%s, value)"); //$NON-NLS-1$
+			}
+		} else if (kind == null) {
+			switch (type.getKind()) {
+			case BYTE:
+				return new Member(name, "byte", "NativeByte.META", "handle.getByte(%s)", "handle.setByte(%s, value)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			case SHORT:
+				return new Member(name, "short", "NativeShort.META", "handle.getShort(%s)", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						"handle.setShort(%s, value)"); //$NON-NLS-1$
+			case INT:
+				return new Member(name, "int", "NativeInt.META", "handle.getInt(%s)", "handle.setInt(%s, value)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			case FLOAT:
+				return new Member(name, "float", "NativeFloat.META", "handle.getFloat(%s)", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						"handle.setFloat(%s, value)"); //$NON-NLS-1$
+			case DOUBLE:
+				return new Member(name, "double", "NativeDouble.META", "handle.getDouble(%s)", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						"handle.setDouble(%s, value)"); //$NON-NLS-1$
+			case DECLARED:
+				if (type.toString().equals(HANDLE)) {
+					return new Member(name, "INativeHandle", "NativeVoid.META.Ref()", "handle.getNativeHandle(%s)", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+							"handle.setNativeHandle(%s, value)"); //$NON-NLS-1$
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "unsupported struct member type " + type //$NON-NLS-1$
+				+ (kind == null ? "" : " of kind " + kind), field); //$NON-NLS-1$ //$NON-NLS-2$
+		return null;
+	}
+
+	protected void generate(TypeElement declaration) throws IOException {
+		AnnotationMirror annotation = getAnnotation(declaration, ANNOTATION_DECLARATION);
+		String className = (String) getAnnotationValue(annotation, "value", null); //$NON-NLS-1$
+		int packing = (Integer) getAnnotationValue(annotation, "packing", 0); //$NON-NLS-1$
+		List<Member> members = new ArrayList<>();
+		boolean valid = true;
+		for (Element element : declaration.getEnclosedElements()) {
+			if (element.getKind() != ElementKind.FIELD || element.getModifiers().contains(Modifier.STATIC)) {
+				continue;
+			}
+			Member member = createMember((VariableElement) element);
+			if (member == null) {
+				valid = false;
+			} else {
+				members.add(member);
+			}
+		}
+		if (!valid) {
+			return;
+		}
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(declaration);
+		String packageName = pkg.isUnnamed() ? null : pkg.getQualifiedName().toString();
+		String qualifiedName = packageName == null ? className : packageName + "." + className; //$NON-NLS-1$
+		try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, declaration).openWriter()) {
+			writer.write(generateSource(packageName, className, declaration, packing, members));
+		}
+	}
+
+	protected String generateSource(String packageName, String className, TypeElement declaration, int packing,
+			List<Member> members) {
+		StringBuilder sb = new StringBuilder();
+		if (packageName != null) {
+			sb.append("package ").append(packageName).append(";\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		sb.append("import de.intarsys.nativec.api.INativeHandle;\n"); //$NON-NLS-1$
+		sb.append("import de.intarsys.nativec.type.*;\n\n"); //$NON-NLS-1$
+		sb.append("/**\n * The struct declared by {@link ").append(declaration.getQualifiedName()) //$NON-NLS-1$
+				.append("}.\n */\n"); //$NON-NLS-1$
+		sb.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		sb.append("public class ").append(className).append(" extends NativeStaticStruct {\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		// meta
+		sb.append("\tpublic static final NativeStructType META = new NativeStructType(").append(className) //$NON-NLS-1$
+				.append(".class) {\n"); //$NON-NLS-1$
+		sb.append("\t\t@Override\n\t\tpublic NativeObject createNative(INativeHandle handle) {\n"); //$NON-NLS-1$
+		sb.append("\t\t\treturn new ").append(className).append("(handle);\n\t\t}\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		sb.append("\t\t@Override\n\t\tpublic NativeObject createNative(Object value) {\n"); //$NON-NLS-1$
+		sb.append("\t\t\treturn new ").append(className).append("();\n\t\t}\n\t};\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (Member member : members) {
+			sb.append("\tpublic static final StructMember ").append(member.getConstant()).append(";\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		for (Member member : members) {
+			sb.append("\tprivate static final int ").append(member.getConstant()).append("_OFFSET;\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		sb.append("\tstatic {\n"); //$NON-NLS-1$
+		if (packing != 0) {
+			sb.append("\t\tMETA.setPacking(").append(packing).append(");\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		for (Member member : members) {
+			sb.append("\t\t").append(member.getConstant()).append(" = META.declare(\"").append(member.getName()) //$NON-NLS-1$ //$NON-NLS-2$
+					.append("\", ").append(member.getMetaType()).append(");\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		for (Member member : members) {
+			sb.append("\t\t").append(member.getConstant()).append("_OFFSET = ").append(member.getConstant()) //$NON-NLS-1$ //$NON-NLS-2$
+					.append(".getOffset();\n"); //$NON-NLS-1$
+		}
+		sb.append("\t}\n\n"); //$NON-NLS-1$
+		// constructors
+		sb.append("\tpublic ").append(className).append("() {\n\t\tsuper();\n\t}\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		sb.append("\tprotected ").append(className) //$NON-NLS-1$
+				.append("(INativeHandle handle) {\n\t\tsuper(handle);\n\t}\n\n"); //$NON-NLS-1$
+		sb.append("\t@Override\n\tpublic INativeType getNativeType() {\n\t\treturn META;\n\t}\n"); //$NON-NLS-1$
+		// accessors
+		for (Member member : members) {
+			String offset = member.getConstant() + "_OFFSET"; //$NON-NLS-1$
+			sb.append("\n\tpublic ").append(member.getJavaType()).append(" get").append(member.getAccessor()) //$NON-NLS-1$ //$NON-NLS-2$
+					.append("() {\n\t\treturn ").append(String.format(member.getRead(), offset)).append(";\n\t}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			sb.append("\n\tpublic void set").append(member.getAccessor()).append("(").append(member.getJavaType()) //$NON-NLS-1$ //$NON-NLS-2$
+					.append(" value) {\n\t\t").append(String.format(member.getWrite(), offset)).append(";\n\t}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		sb.append("}\n"); //$NON-NLS-1$
+		return sb.toString();
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() != ElementKind.CLASS) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"struct declaration must be a class", element); //$NON-NLS-1$
+					continue;
+				}
+				try {
+					generate((TypeElement) element);
+				} catch (IOException e) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"failed to generate struct: " + e.getMessage(), element); //$NON-NLS-1$
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2008, intarsys AG
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.nativec.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import de.intarsys.nativec.type.NativeObject;
+import de.intarsys.nativec.type.NativeStruct;
+import de.intarsys.nativec.type.StructMember;
+
+/**
+ * Compile struct declarations with the {@link NativeStructProcessor} and use
+ * the generated classes.
+ */
+public class NativeStructProcessorTest {
+
+	protected static class Source extends SimpleJavaFileObject {
+
+		private final String code;
+
+		protected Source(String className, String code) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE); //$NON-NLS-1$
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+
+	private static final String POINT = "package test;\n" //$NON-NLS-1$
+			+ "import de.intarsys.nativec.api.NativeKind;\n" //$NON-NLS-1$
+			+ "import de.intarsys.nativec.type.NativeStructDeclaration;\n" //$NON-NLS-1$
+			+ "@NativeStructDeclaration(\"Point\")\n" //$NON-NLS-1$
+			+ "class PointDeclaration {\n" //$NON-NLS-1$
+			+ "	static int ignored;\n" //$NON-NLS-1$
+			+ "	int x;\n" //$NON-NLS-1$
+			+ "	double y;\n" //$NON-NLS-1$
+			+ "	@NativeKind(NativeKind.Kind.CLONG)\n" //$NON-NLS-1$
+			+ "	long lineWidth;\n" //$NON-NLS-1$
+			+ "}\n"; //$NON-NLS-1$
+
+	private Path classes;
+
+	private DiagnosticCollector<JavaFileObject> diagnostics;
+
+	private Path sources;
+
+	protected boolean compile(String className, String code) throws IOException {
+		classes = Files.createTempDirectory("classes"); //$NON-NLS-1$
+		sources = Files.createTempDirectory("sources"); //$NON-NLS-1$
+		diagnostics = new DiagnosticCollector<>();
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), //$NON-NLS-1$ //$NON-NLS-2$
+				"-d", classes.toString(), "-s", sources.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+		CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+				Collections.singletonList(new Source(className, code)));
+		task.setProcessors(Collections.singletonList(new NativeStructProcessor()));
+		return task.call();
+	}
+
+	protected String diagnostics() {
+		StringBuilder sb = new StringBuilder();
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			sb.append(diagnostic.getMessage(null)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testConstantName() {
+		assertEquals("SIZE_IN_BYTES", NativeStructProcessor.constantName("sizeInBytes")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("X", NativeStructProcessor.constantName("x")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testGenerate() throws Exception {
+		boolean compiled = compile("test.PointDeclaration", POINT); //$NON-NLS-1$
+		assertTrue(diagnostics(), compiled);
+		String generated = new String(Files.readAllBytes(sources.resolve("test/Point.java")), StandardCharsets.UTF_8); //$NON-NLS-1$
+		assertTrue(generated.contains("public class Point extends NativeStaticStruct")); //$NON-NLS-1$
+		assertFalse(generated.contains("Ignored")); //$NON-NLS-1$
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() },
+				getClass().getClassLoader())) {
+			Class<?> pointClass = loader.loadClass("test.Point"); //$NON-NLS-1$
+			Object point = pointClass.getConstructor().newInstance();
+			pointClass.getMethod("setX", int.class).invoke(point, 42); //$NON-NLS-1$
+			pointClass.getMethod("setY", double.class).invoke(point, 0.5); //$NON-NLS-1$
+			pointClass.getMethod("setLineWidth", long.class).invoke(point, -3L); //$NON-NLS-1$
+			assertEquals(42, pointClass.getMethod("getX").invoke(point)); //$NON-NLS-1$
+			assertEquals(0.5, pointClass.getMethod("getY").invoke(point)); //$NON-NLS-1$
+			assertEquals(-3L, pointClass.getMethod("getLineWidth").invoke(point)); //$NON-NLS-1$
+			// the accessors and the struct members agree on the layout
+			NativeStruct struct = (NativeStruct) point;
+			StructMember y = (StructMember) pointClass.getField("Y").get(null); //$NON-NLS-1$
+			StructMember lineWidth = (StructMember) pointClass.getField("LINE_WIDTH").get(null); //$NON-NLS-1$
+			assertEquals(8, y.getOffset());
+			assertEquals(16, lineWidth.getOffset());
+			assertEquals(16 + NativeObject.SIZE_LONG, struct.getByteCount());
+			assertEquals(0.5, struct.getNativeHandle().getDouble(8), 0);
+			assertEquals(-3L, ((Number) lineWidth.getValue(struct)).longValue());
+		}
+	}
+
+	@Test
+	public void testUnsupportedType() throws Exception {
+		String code = "package test;\n" //$NON-NLS-1$
+				+ "@de.intarsys.nativec.type.NativeStructDeclaration(\"Plain\")\n" //$NON-NLS-1$
+				+ "class PlainDeclaration {\n" //$NON-NLS-1$
+				+ "	long plain;\n" //$NON-NLS-1$
+				+ "}\n"; //$NON-NLS-1$
+		assertFalse(compile("test.PlainDeclaration", code)); //$NON-NLS-1$
+		assertTrue(diagnostics(), diagnostics().contains("unsupported struct member type long")); //$NON-NLS-1$
+		assertFalse(Files.exists(sources.resolve("test/Plain.java"))); //$NON-NLS-1$
+	}
+}